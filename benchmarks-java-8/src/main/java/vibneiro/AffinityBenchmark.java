@@ -0,0 +1,75 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G -Ddispatcher.cpus=2,3 -jar target/benchmarks-java-8.jar AffinityBenchmark -wi 10 -i 5
+
+Round-trip latency percentiles of ThreadBoundHashDispatcher with workers pinned to cores (dispatcher.cpus,
+the last core by default) versus left to the scheduler. Runs on isolated cores (isolcpus/nohz_full) have not been
+measured yet.
+
+Sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -f 1 -wi 3 -i 3: the only core is shared by everything, thus there is
+nothing to gain and both modes are within the noise:
+
+Benchmark                            (pinned)    Mode    Cnt  Score   Error  Units   p99    p99.9  (us/op)
+AffinityBenchmark.dispatchRoundTrip     false  sample  56323  6.586 ± 0.286  us/op  11.264  39.147
+AffinityBenchmark.dispatchRoundTrip      true  sample  50647  7.208 ± 0.541  us/op  12.544  46.241
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AffinityBenchmark {
+
+    @Param({"false", "true"})
+    boolean pinned;
+
+    ThreadBoundHashDispatcher dispatcher;
+    Runnable task;
+    String id;
+
+    @Setup
+    public void setup() {
+
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        id = "ID";
+
+        String defaultCpu = String.valueOf(Runtime.getRuntime().availableProcessors() - 1);
+        String[] cpuList = System.getProperty("dispatcher.cpus", defaultCpu).split(",");
+        int[] cpus = new int[cpuList.length];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = Integer.parseInt(cpuList[i].trim());
+        }
+
+        ThreadBoundHashDispatcher.Builder builder = ThreadBoundHashDispatcher
+                .newBuilder()
+                .setThreadsCount(cpus.length)
+                .setWaitStrategy(new SpinThenYieldWaitStrategy());
+        if (pinned) {
+            builder.pinWorkersToCpus(cpus);
+        }
+        dispatcher = builder.build();
+        dispatcher.start();
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Threads(1)
+    public Void dispatchRoundTrip() throws ExecutionException, InterruptedException {
+        return dispatcher.dispatchAsync(id, task).get();
+    }
+
+}
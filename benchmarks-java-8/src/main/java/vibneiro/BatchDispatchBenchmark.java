@@ -0,0 +1,91 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.Dispatcher;
+import vibneiro.dispatchers.KeyedTask;
+import vibneiro.dispatchers.ThreadBoundHashDispatcher;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar BatchDispatchBenchmark -prof gc -wi 5 -i 5
+
+An ingest thread dispatching 5k messages of 500 dispatchIds: one dispatchAllAsync call versus 5k dispatchAsync
+calls, each run waits for all messages to be done.
+
+Sandbox run (1 CPU, -f 1 -wi 3 -i 3):
+Benchmark                                 (dispatcherType)  Mode  Cnt     Score   Units   gc.alloc.rate.norm
+BatchDispatchBenchmark.dispatchAllAsync       WorkStealing  avgt    3   921.889   us/op          334540 B/op
+BatchDispatchBenchmark.dispatchAllAsync        ThreadBound  avgt    3   525.599   us/op          219129 B/op
+BatchDispatchBenchmark.dispatchAsyncEach      WorkStealing  avgt    3  2202.737   us/op         1447621 B/op
+BatchDispatchBenchmark.dispatchAsyncEach       ThreadBound  avgt    3  2201.076   us/op          700852 B/op
+
+A batch costs a chain link or a queue entry per dispatchId, ~10 messages each here, and a wake-up per worker.
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchDispatchBenchmark {
+
+    final static String WORK_STEALING = "WorkStealing";
+    final static String THREAD_BOUND = "ThreadBound";
+
+    final static int MESSAGES = 5000;
+    final static int KEYS = 500;
+
+    @Param({WORK_STEALING, THREAD_BOUND})
+    String dispatcherType;
+
+    Dispatcher dispatcher;
+    String[] dispatchIds;
+    List<KeyedTask> batch;
+
+    @Setup
+    public void setup() {
+        if (dispatcherType.equals(WORK_STEALING)) {
+            dispatcher = WorkStealingDispatcher.newBuilder().build();
+        } else if (dispatcherType.equals(THREAD_BOUND)) {
+            dispatcher = ThreadBoundHashDispatcher.newBuilder().build();
+        } else {
+            throw new AssertionError("Unknown dispatcher: " + dispatcherType);
+        }
+        dispatcher.start();
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        dispatchIds = new String[MESSAGES];
+        batch = new ArrayList<KeyedTask>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            dispatchIds[i] = "id" + ThreadLocalRandom.current().nextInt(KEYS);
+            batch.add(new KeyedTask(dispatchIds[i], task));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Benchmark
+    public Void dispatchAllAsync() {
+        return dispatcher.dispatchAllAsync(batch).join();
+    }
+
+    @Benchmark
+    public Void dispatchAsyncEach() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            futures[i] = dispatcher.dispatchAsync(dispatchIds[i], batch.get(i).getTask());
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
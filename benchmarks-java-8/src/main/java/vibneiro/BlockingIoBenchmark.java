@@ -0,0 +1,89 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G --add-opens java.base/java.io=ALL-UNNAMED -jar target/benchmarks-java-8.jar BlockingIoBenchmark \
+    -jvmArgsAppend "--add-opens java.base/java.io=ALL-UNNAMED" -wi 5 -i 5
+
+WorkStealingDispatcher running tasks blocked by simulated I/O (a 1 ms sleep): a batch of one task per dispatchId
+over (keys) dispatchIds, the score is the time to complete the batch.
+The default ForkJoinPool runs as many tasks at once as it has threads. With dispatchBlockingAsync (ManagedBlock)
+the pool adds compensation threads for blocked tasks, virtual threads run them all at once.
+VirtualThreads needs JDK 21+ to run the benchmark on, --add-opens lets this JMH version start on it.
+
+Sandbox VM, 1 vCPU (a ForkJoinPool of 1 thread), OpenJDK 21.0.1, -f 1 -wi 3 -i 3:
+
+Benchmark                            (executor)  (keys)  Mode  Cnt      Score       Error  Units
+BlockingIoBenchmark.blockingBatch      ForkJoin     100  avgt    3    119.898 ±   113.946  ms/op
+BlockingIoBenchmark.blockingBatch      ForkJoin   10000  avgt    3  12514.035 ±  1217.344  ms/op
+BlockingIoBenchmark.blockingBatch  ManagedBlock     100  avgt    3      4.798 ±    17.032  ms/op
+BlockingIoBenchmark.blockingBatch  ManagedBlock   10000  avgt    3   1192.210 ± 27626.302  ms/op
+BlockingIoBenchmark.blockingBatch       Virtual     100  avgt    3      1.536 ±     0.962  ms/op
+BlockingIoBenchmark.blockingBatch       Virtual   10000  avgt    3     40.419 ±    75.411  ms/op
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlockingIoBenchmark {
+
+    final static String FORK_JOIN = "ForkJoin";
+    final static String MANAGED_BLOCK = "ManagedBlock";
+    final static String VIRTUAL = "Virtual";
+
+    @Param({FORK_JOIN, MANAGED_BLOCK, VIRTUAL})
+    String executor;
+
+    @Param({"100", "10000"})
+    int keys;
+
+    WorkStealingDispatcher dispatcher;
+
+    @Setup
+    public void setup() {
+        WorkStealingDispatcher.Builder builder = WorkStealingDispatcher.newBuilder().mailboxQueues();
+        if (executor.equals(VIRTUAL)) {
+            builder.virtualThreads();
+        } else if (!executor.equals(FORK_JOIN) && !executor.equals(MANAGED_BLOCK)) {
+            throw new AssertionError("Unknown executor: " + executor);
+        }
+        dispatcher = builder.build();
+        dispatcher.start();
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Threads(1)
+    public void blockingBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(keys);
+        Runnable blockingTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        boolean managedBlock = executor.equals(MANAGED_BLOCK);
+        for (int k = 0; k < keys; k++) {
+            if (managedBlock) {
+                dispatcher.dispatchBlockingAsync(k, blockingTask);
+            } else {
+                dispatcher.dispatch(k, blockingTask);
+            }
+        }
+        done.await();
+    }
+
+}
@@ -2,8 +2,6 @@ package vibneiro;
 
 import org.openjdk.jmh.annotations.*;
 import vibneiro.dispatchers.CaffeineCachedDispatcher;
-import vibneiro.idgenerators.IdGenerator;
-import vibneiro.idgenerators.time.SystemDateSource;
 
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
@@ -51,7 +49,14 @@ public class CaffeinedDispatcherBenchmark {
     @Param({BOUNDED, UNBOUNDED})
     String cacheType;
 
+    final static String FUTURE_CHAIN = "FutureChain";
+    final static String MAILBOX = "Mailbox";
+
+    @Param({FUTURE_CHAIN, MAILBOX})
+    String queueType;
+
     String[] rndIds;
+    long[] rndLongIds;
 
     @State(Scope.Thread)
     public static class ThreadState {
@@ -72,21 +77,26 @@ public class CaffeinedDispatcherBenchmark {
 
         CaffeineCachedDispatcher.Builder builder = CaffeineCachedDispatcher
                 .newBuilder()
-                .setIdGenerator(new IdGenerator("ID_", new SystemDateSource()))
                 .setExecutorService(Executors.newWorkStealingPool());
 
         if(cacheType.equals(BOUNDED)) {
             builder.setQueueSize(256);
         }
 
+        if(queueType.equals(MAILBOX)) {
+            builder.setThroughput(64);
+        }
+
         dispatcher = builder.build();
         dispatcher.start();
 
         rndIds = new String[SIZE];
+        rndLongIds = new long[SIZE];
         Random random = new Random();
 
         for (int i = 0; i < SIZE; i++) {
             rndIds[i] = String.valueOf(random.nextInt());
+            rndLongIds[i] = random.nextLong();
         }
     }
 
@@ -110,4 +120,9 @@ public class CaffeinedDispatcherBenchmark {
         return dispatcher.dispatchAsync(rndIds[threadState.index++ & MASK], task).get();
     }
 
+    @Benchmark @Threads(4)
+    public Void dispatchRandomLongId(ThreadState threadState) throws ExecutionException, InterruptedException {
+        return dispatcher.dispatchAsync(rndLongIds[threadState.index++ & MASK], task).get();
+    }
+
 }
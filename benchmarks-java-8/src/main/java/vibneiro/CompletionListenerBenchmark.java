@@ -0,0 +1,101 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.Dispatcher;
+import vibneiro.dispatchers.MessageCompletedListener;
+import vibneiro.dispatchers.ThreadBoundHashDispatcher;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar CompletionListenerBenchmark -prof gc -wi 5 -i 5
+
+Tracking completion of a burst of 1000 tasks of a dispatchId: a listener called inline by the worker versus
+a future per task with a callback, the burst is awaited by a last dispatchAsync.
+
+Sandbox run (1 CPU, -f 1 -wi 3 -i 3):
+Benchmark                                         (dispatcherType)  Mode  Cnt    Score   Units   gc.alloc.rate.norm
+CompletionListenerBenchmark.futureCallback            WorkStealing  avgt    3  111.449   us/op          112098 B/op
+CompletionListenerBenchmark.futureCallback             ThreadBound  avgt    3  260.525   us/op          119588 B/op
+CompletionListenerBenchmark.listener                  WorkStealing  avgt    3   82.998   us/op           48201 B/op
+CompletionListenerBenchmark.listener                   ThreadBound  avgt    3  186.623   us/op           48114 B/op
+
+A listened task costs a small wrapper instead of a future and its callback node, ~48 versus ~115 bytes per task.
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompletionListenerBenchmark {
+
+    final static String WORK_STEALING = "WorkStealing";
+    final static String THREAD_BOUND = "ThreadBound";
+
+    final static int BURST = 1000;
+
+    @Param({WORK_STEALING, THREAD_BOUND})
+    String dispatcherType;
+
+    Dispatcher dispatcher;
+    Runnable task;
+    AtomicLong completed;
+    MessageCompletedListener listener;
+    BiConsumer<Void, Throwable> callback;
+
+    @Setup
+    public void setup() {
+        if (dispatcherType.equals(WORK_STEALING)) {
+            dispatcher = WorkStealingDispatcher.newBuilder().mailboxQueues().build();
+        } else if (dispatcherType.equals(THREAD_BOUND)) {
+            dispatcher = ThreadBoundHashDispatcher.newBuilder().build();
+        } else {
+            throw new AssertionError("Unknown dispatcher: " + dispatcherType);
+        }
+        dispatcher.start();
+
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        completed = new AtomicLong();
+        listener = new MessageCompletedListener() {
+            @Override
+            public void onCompleted(Throwable failure) {
+                completed.lazySet(completed.get() + 1); // single writer per dispatchId
+            }
+        };
+        callback = new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable failure) {
+                completed.lazySet(completed.get() + 1);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Benchmark
+    public long listener() {
+        for (int i = 0; i < BURST; i++) {
+            dispatcher.dispatch("id", task, listener);
+        }
+        dispatcher.dispatchAsync("id", task).join();
+        return completed.get();
+    }
+
+    @Benchmark
+    public long futureCallback() {
+        for (int i = 0; i < BURST; i++) {
+            dispatcher.dispatchAsync("id", task).whenComplete(callback);
+        }
+        dispatcher.dispatchAsync("id", task).join();
+        return completed.get();
+    }
+}
@@ -0,0 +1,85 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.EvictionPolicy;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar EvictionBenchmark -prof gc -wi 5 -i 5
+
+Throughput of WorkStealingDispatcher under 10M distinct dispatchIds and the cache size after each iteration
+(printed as "cache size"), per eviction policy. Every 1024th future is awaited to bound the executor backlog.
+
+Sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -Xmx2G -f 1 -wi 3 -i 3, queue size = 1000:
+
+Benchmark                               (evictionPolicy)   Mode  Cnt        Score   Units   cache size     gc.time
+EvictionBenchmark.dispatchDistinctKeys   WEAK_REFERENCES  thrpt    3   817160.937   ops/s   77852-400362   2238 ms
+EvictionBenchmark.dispatchDistinctKeys       SAMPLED_LRU  thrpt    3  1148109.537   ops/s    2169-3948       55 ms
+EvictionBenchmark.dispatchDistinctKeys     ON_COMPLETION  thrpt    3  4176133.303   ops/s            0      145 ms
+*/
+
+@State(Scope.Benchmark)
+public class EvictionBenchmark {
+
+    static final long DISTINCT_KEYS = 10000000L;
+    static final int QUEUE_SIZE = 1000;
+
+    final static String WEAK_REFERENCES = "WEAK_REFERENCES";
+    final static String SAMPLED_LRU = "SAMPLED_LRU";
+    final static String ON_COMPLETION = "ON_COMPLETION";
+
+    @Param({WEAK_REFERENCES, SAMPLED_LRU, ON_COMPLETION})
+    String evictionPolicy;
+
+    WorkStealingDispatcher dispatcher;
+    Runnable task;
+    AtomicLong keys;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int dispatched;
+    }
+
+    @Setup
+    public void setup() {
+
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        keys = new AtomicLong();
+
+        dispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setQueueSize(QUEUE_SIZE)
+                .setEvictionPolicy(EvictionPolicy.valueOf(evictionPolicy))
+                .build();
+        dispatcher.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCacheSize() {
+        System.out.println("cache size: " + dispatcher.getCacheSize());
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Threads(4)
+    public void dispatchDistinctKeys(ThreadState threadState) throws ExecutionException, InterruptedException {
+        String dispatchId = String.valueOf(keys.getAndIncrement() % DISTINCT_KEYS);
+        CompletableFuture<Void> future = dispatcher.dispatchAsync(dispatchId, task);
+        if ((++threadState.dispatched & 1023) == 0) {
+            future.get();
+        }
+    }
+
+}
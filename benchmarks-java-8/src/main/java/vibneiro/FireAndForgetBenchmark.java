@@ -0,0 +1,98 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.Dispatcher;
+import vibneiro.dispatchers.OverflowPolicy;
+import vibneiro.dispatchers.ThreadBoundHashDispatcher;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar FireAndForgetBenchmark -prof gc -wi 5 -i 5
+
+Producer-side cost of dispatch (no future) versus dispatchAsync (future discarded).
+Pending tasks are bounded and producers get blocked when consumers lag, thus the score is the sustained throughput.
+
+Sandbox run (1 CPU, -f 1 -wi 3 -i 3):
+Benchmark                               (dispatcherType)   Mode  Cnt         Score    Units   gc.alloc.rate.norm
+FireAndForgetBenchmark.dispatch             WorkStealing  thrpt    3   2092454.335    ops/s   195.986 B/op
+FireAndForgetBenchmark.dispatch              ThreadBound  thrpt    3  10269769.293    ops/s     0.001 B/op
+FireAndForgetBenchmark.dispatchAsync        WorkStealing  thrpt    3   2094671.358    ops/s   223.171 B/op
+FireAndForgetBenchmark.dispatchAsync         ThreadBound  thrpt    3   8380157.083    ops/s    32.001 B/op
+*/
+
+@State(Scope.Benchmark)
+public class FireAndForgetBenchmark {
+
+    static final int SIZE = (2 << 14);
+    static final int MASK = SIZE - 1;
+    static final int MAX_PENDING_TASKS = 4096;
+
+    final static String WORK_STEALING = "WorkStealing";
+    final static String THREAD_BOUND = "ThreadBound";
+
+    @Param({WORK_STEALING, THREAD_BOUND})
+    String dispatcherType;
+
+    Dispatcher dispatcher;
+    Runnable task;
+    String[] rndIds;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup
+    public void setup() {
+
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        if (dispatcherType.equals(WORK_STEALING)) {
+            dispatcher = WorkStealingDispatcher
+                    .newBuilder()
+                    .setMaxPendingTasks(MAX_PENDING_TASKS)
+                    .setOverflowPolicy(OverflowPolicy.BLOCK)
+                    .build();
+        } else if (dispatcherType.equals(THREAD_BOUND)) {
+            dispatcher = ThreadBoundHashDispatcher
+                    .newBuilder()
+                    .ringBufferQueues(MAX_PENDING_TASKS)
+                    .setOverflowPolicy(OverflowPolicy.BLOCK)
+                    .build();
+        } else {
+            throw new AssertionError("Unknown dispatcherType: " + dispatcherType);
+        }
+        dispatcher.start();
+
+        rndIds = new String[SIZE];
+        Random random = new Random();
+
+        for (int i = 0; i < SIZE; i++) {
+            rndIds[i] = String.valueOf(random.nextInt());
+        }
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Threads(4)
+    public void dispatch(ThreadState threadState) {
+        dispatcher.dispatch(rndIds[threadState.index++ & MASK], task);
+    }
+
+    @Benchmark @Threads(4)
+    public CompletableFuture<Void> dispatchAsync(ThreadState threadState) {
+        return dispatcher.dispatchAsync(rndIds[threadState.index++ & MASK], task);
+    }
+
+}
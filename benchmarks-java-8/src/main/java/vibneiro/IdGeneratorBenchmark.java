@@ -0,0 +1,65 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.idgenerators.IdGenerator;
+import vibneiro.idgenerators.SnowflakeIdGenerator;
+import vibneiro.idgenerators.time.CachedDateSource;
+import vibneiro.idgenerators.time.SystemDateSource;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar IdGeneratorBenchmark -prof gc -wi 5 -i 5
+
+String ids of IdGenerator (a single AtomicInteger) versus numeric ids of SnowflakeIdGenerator (thread-striped sequences),
+with the system clock and the cached one.
+
+Sandbox VM, 1 vCPU (32 threads time-share it), OpenJDK 1.8.0_392, -f 1 -wi 3 -i 3:
+
+Benchmark                                          Mode  Cnt          Score   Units   gc.alloc.rate.norm
+IdGeneratorBenchmark.stringId                     thrpt    3    5679617.042   ops/s   256 B/op
+IdGeneratorBenchmark.snowflakeId                  thrpt    3   18515499.111   ops/s     0 B/op
+IdGeneratorBenchmark.snowflakeIdCachedClock       thrpt    3  117950813.913   ops/s     0 B/op
+IdGeneratorBenchmark.snowflakeStringIdCachedClock thrpt    3    8052351.345   ops/s   248 B/op
+*/
+
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+    IdGenerator idGenerator;
+    SnowflakeIdGenerator snowflakeIdGenerator;
+    SnowflakeIdGenerator cachedClockSnowflakeIdGenerator;
+    CachedDateSource cachedDateSource;
+
+    @Setup
+    public void setup() {
+        idGenerator = new IdGenerator("ID_", new SystemDateSource());
+        snowflakeIdGenerator = new SnowflakeIdGenerator("ID_", new SystemDateSource());
+        cachedDateSource = new CachedDateSource();
+        cachedClockSnowflakeIdGenerator = new SnowflakeIdGenerator("ID_", cachedDateSource);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cachedDateSource.close();
+    }
+
+    @Benchmark @Threads(32)
+    public String stringId() {
+        return idGenerator.nextId();
+    }
+
+    @Benchmark @Threads(32)
+    public long snowflakeId() {
+        return snowflakeIdGenerator.nextId();
+    }
+
+    @Benchmark @Threads(32)
+    public long snowflakeIdCachedClock() {
+        return cachedClockSnowflakeIdGenerator.nextId();
+    }
+
+    @Benchmark @Threads(32)
+    public String snowflakeStringIdCachedClock() {
+        return cachedClockSnowflakeIdGenerator.nextStringId();
+    }
+
+}
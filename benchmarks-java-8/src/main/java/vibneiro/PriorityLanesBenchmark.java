@@ -0,0 +1,106 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import vibneiro.dispatchers.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar PriorityLanesBenchmark -wi 10 -i 5
+
+Round-trip latency of HIGH tasks (mixed:high) dispatched while batches of BULK tasks (mixed:bulk) keep a single
+worker thread busy, with and without priority lanes. Without lanes a HIGH task waits for the BULK batch ahead of it,
+with lanes it is picked by 8 of 13 turns of the worker.
+
+Sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -f 1 -wi 3 -i 3:
+
+Benchmark                          (dispatcherType)  (lanes)    Mode    Cnt    Score    Error  Units      p99
+PriorityLanesBenchmark.mixed:bulk      WorkStealing    false  sample   7734  387.716 ± 31.847  us/op
+PriorityLanesBenchmark.mixed:high      WorkStealing    false  sample   9355  320.009 ± 26.532  us/op  2666.824
+PriorityLanesBenchmark.mixed:bulk      WorkStealing     true  sample   1253  796.885 ± 72.729  us/op
+PriorityLanesBenchmark.mixed:high      WorkStealing     true  sample  60363   18.757 ±  2.083  us/op   263.680
+PriorityLanesBenchmark.mixed:bulk       ThreadBound    false  sample   9494  315.665 ± 14.084  us/op
+PriorityLanesBenchmark.mixed:high       ThreadBound    false  sample  10358  289.319 ± 13.140  us/op  1459.589
+PriorityLanesBenchmark.mixed:bulk       ThreadBound     true  sample   1044  719.590 ± 52.852  us/op
+PriorityLanesBenchmark.mixed:high       ThreadBound     true  sample  53116   14.317 ±  1.031  us/op   257.748
+
+BULK batches take longer with lanes, as the HIGH thread gets its turns of the worker.
+*/
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PriorityLanesBenchmark {
+
+    final static String WORK_STEALING = "WorkStealing";
+    final static String THREAD_BOUND = "ThreadBound";
+
+    final static int BULK_BATCH = 100;
+    final static int BULK_TOKENS = 1000; // a few microseconds of work
+
+    @Param({WORK_STEALING, THREAD_BOUND})
+    String dispatcherType;
+
+    @Param({"false", "true"})
+    boolean lanes;
+
+    Dispatcher dispatcher;
+    Runnable highTask;
+    long bulkKey;
+
+    @Setup
+    public void setup() {
+        if (dispatcherType.equals(WORK_STEALING)) {
+            WorkStealingDispatcher.Builder builder = WorkStealingDispatcher.newBuilder().setThreadsCount(1);
+            if (lanes) {
+                builder.priorityLanes();
+            }
+            dispatcher = builder.build();
+        } else if (dispatcherType.equals(THREAD_BOUND)) {
+            ThreadBoundHashDispatcher.Builder builder = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(1);
+            if (lanes) {
+                builder.priorityLanes();
+            }
+            dispatcher = builder.build();
+        } else {
+            throw new AssertionError("Unknown dispatcher: " + dispatcherType);
+        }
+        dispatcher.start();
+
+        highTask = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Group("mixed") @GroupThreads(1)
+    public void bulk() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BULK_BATCH);
+        Runnable bulkTask = new Runnable() {
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(BULK_TOKENS);
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < BULK_BATCH; i++) {
+            dispatcher.dispatch(bulkKey++, Priority.BULK, bulkTask);
+        }
+        done.await();
+    }
+
+    @Benchmark @Group("mixed") @GroupThreads(1)
+    public Void high() throws ExecutionException, InterruptedException {
+        return dispatcher.dispatchAsync("order", Priority.HIGH, highTask).get();
+    }
+
+}
@@ -0,0 +1,101 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.Dispatcher;
+import vibneiro.dispatchers.ThreadBoundHashDispatcher;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar SchedulingBenchmark -wi 5 -i 5
+
+Cost of scheduling a keyed task and cancelling it, the usual fate of a timeout, while 1k or 1M timers are pending:
+scheduleAsync on the shared timing wheel versus a ScheduledThreadPoolExecutor calling dispatch on expiry.
+The wheel links a timeout into a slot on its own thread, the executor sifts it into a heap under a lock shared by
+the producers.
+
+Sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -f 1 -wi 5 -i 3 -prof gc:
+
+Benchmark                              (pendingTimers)    (schedulerType)   Mode  Cnt        Score    Units  alloc.norm
+SchedulingBenchmark.scheduleAndCancel             1000         TimerWheel  thrpt    3  4496427.023    ops/s    264 B/op
+SchedulingBenchmark.scheduleAndCancel             1000  ScheduledExecutor  thrpt    3  7206272.792    ops/s    120 B/op
+SchedulingBenchmark.scheduleAndCancel          1000000         TimerWheel  thrpt    3  4049096.462    ops/s    270 B/op
+SchedulingBenchmark.scheduleAndCancel          1000000  ScheduledExecutor  thrpt    3  6787074.236    ops/s    120 B/op
+
+Both stay flat with the number of pending timers: a random delay seldom sifts far up the heap. On a single vCPU
+the timer thread links and unlinks on the same core as the producer and the future is a CompletableFuture,
+thus the wheel pays more per timer; it keeps producers off a shared lock and expires timers without the heap.
+*/
+
+@State(Scope.Benchmark)
+public class SchedulingBenchmark {
+
+    final static String TIMER_WHEEL = "TimerWheel";
+    final static String SCHEDULED_EXECUTOR = "ScheduledExecutor";
+
+    final static Duration HOUR = Duration.ofHours(1);
+
+    @Param({TIMER_WHEEL, SCHEDULED_EXECUTOR})
+    String schedulerType;
+
+    @Param({"1000", "1000000"})
+    int pendingTimers;
+
+    Dispatcher dispatcher;
+    ScheduledThreadPoolExecutor executor;
+    Future<?>[] pending;
+    Runnable task;
+
+    @Setup
+    public void setup() {
+        dispatcher = ThreadBoundHashDispatcher.newBuilder().build();
+        dispatcher.start();
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        pending = new Future<?>[pendingTimers];
+        for (int i = 0; i < pendingTimers; i++) {
+            pending[i] = schedule(i, delayNanos());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Future<?> future : pending) {
+            future.cancel(false);
+        }
+        executor.shutdown();
+        dispatcher.stop();
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        return schedule(ThreadLocalRandom.current().nextLong(), delayNanos()).cancel(false);
+    }
+
+    private Future<?> schedule(final long dispatchId, long delayNanos) {
+        if (schedulerType.equals(TIMER_WHEEL)) {
+            return dispatcher.scheduleAsync(dispatchId, task, Duration.ofNanos(delayNanos));
+        }
+        return executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.dispatch(dispatchId, task);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // spread over an hour, none of them expires during the run
+    private static long delayNanos() {
+        return HOUR.toNanos() + ThreadLocalRandom.current().nextLong(HOUR.toNanos());
+    }
+}
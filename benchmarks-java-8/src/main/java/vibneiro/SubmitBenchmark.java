@@ -0,0 +1,82 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.Dispatcher;
+import vibneiro.dispatchers.ThreadBoundHashDispatcher;
+import vibneiro.dispatchers.WorkStealingDispatcher;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar SubmitBenchmark -prof gc -wi 5 -i 5
+
+Round trip of a task returning a result: submitAsync versus dispatchAsync completing a future of its own,
+the way results were passed before submitAsync.
+
+Sandbox run (1 CPU, -f 1 -wi 3 -i 3):
+Benchmark                                (dispatcherType)  Mode  Cnt     Score     Units   gc.alloc.rate.norm
+SubmitBenchmark.dispatchAsyncWithHolder      WorkStealing  avgt    3  8679.705     ns/op   282.910 B/op
+SubmitBenchmark.dispatchAsyncWithHolder       ThreadBound  avgt    3  7410.258     ns/op   135.343 B/op
+SubmitBenchmark.submitAsync                  WorkStealing  avgt    3  7777.122     ns/op   249.683 B/op
+SubmitBenchmark.submitAsync                   ThreadBound  avgt    3  7542.847     ns/op    87.538 B/op
+
+The round trip is dominated by the thread handoff, the saving is the holder future and the capturing task.
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SubmitBenchmark {
+
+    final static String WORK_STEALING = "WorkStealing";
+    final static String THREAD_BOUND = "ThreadBound";
+
+    @Param({WORK_STEALING, THREAD_BOUND})
+    String dispatcherType;
+
+    Dispatcher dispatcher;
+    Supplier<Integer> supplier;
+
+    @Setup
+    public void setup() {
+        if (dispatcherType.equals(WORK_STEALING)) {
+            dispatcher = WorkStealingDispatcher.newBuilder().build();
+        } else if (dispatcherType.equals(THREAD_BOUND)) {
+            dispatcher = ThreadBoundHashDispatcher.newBuilder().build();
+        } else {
+            throw new AssertionError("Unknown dispatcher: " + dispatcherType);
+        }
+        dispatcher.start();
+
+        supplier = new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return 42;
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Benchmark
+    public Integer submitAsync() {
+        return dispatcher.submitAsync("id", supplier).join();
+    }
+
+    @Benchmark
+    public Integer dispatchAsyncWithHolder() {
+        final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+        dispatcher.dispatchAsync("id", new Runnable() {
+            @Override
+            public void run() {
+                result.complete(supplier.get());
+            }
+        });
+        return result.join();
+    }
+}
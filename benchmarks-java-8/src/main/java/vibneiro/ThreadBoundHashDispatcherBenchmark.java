@@ -1,6 +1,7 @@
 package vibneiro;
 
 import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.OverflowPolicy;
 import vibneiro.dispatchers.ThreadBoundHashDispatcher;
 
 import java.util.Random;
@@ -41,6 +42,13 @@ public class ThreadBoundHashDispatcherBenchmark {
         String id;
 
         String[] rndIds;
+        long[] rndLongIds;
+
+        final static String LINKED_QUEUE = "LinkedQueue";
+        final static String RING_BUFFER = "RingBuffer";
+
+        @Param({LINKED_QUEUE, RING_BUFFER})
+        String queueType;
 
         @State(Scope.Thread)
         public static class ThreadState {
@@ -62,14 +70,21 @@ public class ThreadBoundHashDispatcherBenchmark {
             ThreadBoundHashDispatcher.Builder builder = ThreadBoundHashDispatcher
                     .newBuilder();
 
+            if (queueType.equals(RING_BUFFER)) {
+                builder.ringBufferQueues(4096)
+                        .setOverflowPolicy(OverflowPolicy.BLOCK);
+            }
+
             dispatcher = builder.build();
             dispatcher.start();
 
             rndIds = new String[SIZE];
+            rndLongIds = new long[SIZE];
             Random random = new Random();
 
             for (int i = 0; i < SIZE; i++) {
                 rndIds[i] = String.valueOf(random.nextInt());
+                rndLongIds[i] = random.nextLong();
             }
         }
 
@@ -93,4 +108,9 @@ public class ThreadBoundHashDispatcherBenchmark {
             return dispatcher.dispatchAsync(rndIds[threadState.index++ & MASK], task).get();
         }
 
+        @Benchmark @Threads(4)
+        public Void dispatchRandomLongId(ThreadState threadState) throws ExecutionException, InterruptedException {
+            return dispatcher.dispatchAsync(rndLongIds[threadState.index++ & MASK], task).get();
+        }
+
     }
@@ -0,0 +1,87 @@
+package vibneiro;
+
+import org.openjdk.jmh.annotations.*;
+import vibneiro.dispatchers.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+java -server -Xms5G -Xmx5G -jar target/benchmarks-java-8.jar WaitStrategyBenchmark -wi 10 -i 5
+
+Round-trip latency of a task dispatched to an idle worker of ThreadBoundHashDispatcher, per WaitStrategy.
+Spinning strategies occupy a core per worker: run on a box with more cores than workers + benchmark threads.
+
+Sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -f 1 -wi 2 -i 3 (BusySpin shares the only core with the benchmark thread):
+
+Benchmark                                (waitStrategy)    Mode    Cnt   Score   Error  Units
+WaitStrategyBenchmark.dispatchRoundTrip        BusySpin  sample  31698  13,685 ± 2,982  us/op
+WaitStrategyBenchmark.dispatchRoundTrip   SpinThenYield  sample  50780   7,362 ± 0,577  us/op
+WaitStrategyBenchmark.dispatchRoundTrip        Yielding  sample  55026   6,790 ± 0,475  us/op
+WaitStrategyBenchmark.dispatchRoundTrip     BackoffPark  sample  57838   6,663 ± 0,439  us/op
+WaitStrategyBenchmark.dispatchRoundTrip        Blocking  sample  42954   8,761 ± 0,821  us/op
+*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaitStrategyBenchmark {
+
+    final static String BUSY_SPIN = "BusySpin";
+    final static String SPIN_THEN_YIELD = "SpinThenYield";
+    final static String YIELDING = "Yielding";
+    final static String BACKOFF_PARK = "BackoffPark";
+    final static String BLOCKING = "Blocking";
+
+    @Param({BUSY_SPIN, SPIN_THEN_YIELD, YIELDING, BACKOFF_PARK, BLOCKING})
+    String waitStrategy;
+
+    ThreadBoundHashDispatcher dispatcher;
+    Runnable task;
+    String id;
+
+    @Setup
+    public void setup() {
+
+        task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        id = "ID";
+
+        dispatcher = ThreadBoundHashDispatcher
+                .newBuilder()
+                .setThreadsCount(1)
+                .setWaitStrategy(newWaitStrategy())
+                .build();
+        dispatcher.start();
+    }
+
+    private WaitStrategy newWaitStrategy() {
+        if (waitStrategy.equals(BUSY_SPIN)) {
+            return new BusySpinWaitStrategy();
+        } else if (waitStrategy.equals(SPIN_THEN_YIELD)) {
+            return new SpinThenYieldWaitStrategy();
+        } else if (waitStrategy.equals(YIELDING)) {
+            return new YieldingWaitStrategy();
+        } else if (waitStrategy.equals(BACKOFF_PARK)) {
+            return new BackoffParkWaitStrategy();
+        } else if (waitStrategy.equals(BLOCKING)) {
+            return new BlockingWaitStrategy();
+        }
+        throw new AssertionError("Unknown waitStrategy: " + waitStrategy);
+    }
+
+    @TearDown()
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    @Benchmark @Threads(1)
+    public Void dispatchRoundTrip() throws ExecutionException, InterruptedException {
+        return dispatcher.dispatchAsync(id, task).get();
+    }
+
+}
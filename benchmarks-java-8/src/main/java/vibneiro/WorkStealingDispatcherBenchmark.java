@@ -2,8 +2,6 @@ package vibneiro;
 
 import org.openjdk.jmh.annotations.*;
 import vibneiro.dispatchers.WorkStealingDispatcher;
-import vibneiro.idgenerators.IdGenerator;
-import vibneiro.idgenerators.time.SystemDateSource;
 
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
@@ -45,6 +43,18 @@ WorkStealingDispatcherBenchmark.dispatchSameKey     Unbounded      ForkJoinPool
 WorkStealingDispatcherBenchmark.dispatchSameKey     Unbounded   FixedThreadPool  thrpt   50    74297,589 ±    522,491  ops/s
 WorkStealingDispatcherBenchmark.dispatchUniqueId    Unbounded      ForkJoinPool  thrpt   50   710174,457 ± 125705,054  ops/s
 WorkStealingDispatcherBenchmark.dispatchUniqueId    Unbounded   FixedThreadPool  thrpt   50    81077,133 ±   2499,133  ops/s
+
+------------
+Future chain vs mailbox queues (sandbox VM, 1 vCPU, OpenJDK 1.8.0_392, -f 1 -wi 3 -i 5, 4 threads):
+Contention on the map bin is not reproducible with a single core, re-run on a multicore box for the hot-key numbers.
+
+java -server -Xms1G -Xmx1G -jar target/benchmarks-java-8.jar "WorkStealingDispatcherBenchmark.dispatch(SameKey|Randomly)" -p cacheType=Unbounded -p threadPoolType=ForkJoinPool -f 1 -wi 3 -i 5
+
+Benchmark                                         (cacheType)  (queueType)  (threadPoolType)   Mode  Cnt       Score        Error  Units
+WorkStealingDispatcherBenchmark.dispatchRandomly    Unbounded  FutureChain      ForkJoinPool  thrpt    5  147218,813 ± 114612,380  ops/s
+WorkStealingDispatcherBenchmark.dispatchRandomly    Unbounded      Mailbox      ForkJoinPool  thrpt    5   95205,385 ±  34954,956  ops/s
+WorkStealingDispatcherBenchmark.dispatchSameKey     Unbounded  FutureChain      ForkJoinPool  thrpt    5  172710,375 ± 129863,698  ops/s
+WorkStealingDispatcherBenchmark.dispatchSameKey     Unbounded      Mailbox      ForkJoinPool  thrpt    5  189218,383 ±  44374,738  ops/s
 */
 
 @State(Scope.Benchmark)
@@ -70,7 +80,14 @@ public class WorkStealingDispatcherBenchmark {
     @Param({BOUNDED, UNBOUNDED})
     String cacheType;
 
+    final static String FUTURE_CHAIN = "FutureChain";
+    final static String MAILBOX = "Mailbox";
+
+    @Param({FUTURE_CHAIN, MAILBOX})
+    String queueType;
+
     String[] rndIds;
+    long[] rndLongIds;
 
     @State(Scope.Thread)
     public static class ThreadState {
@@ -99,10 +116,12 @@ public class WorkStealingDispatcherBenchmark {
         }
 
         rndIds = new String[SIZE];
+        rndLongIds = new long[SIZE];
         Random random = new Random();
 
         for (int i = 0; i < SIZE; i++) {
             rndIds[i] = String.valueOf(random.nextInt());
+            rndLongIds[i] = random.nextLong();
         }
     }
 
@@ -113,14 +132,17 @@ public class WorkStealingDispatcherBenchmark {
 
     private void setupWorkStealingDispatcher() {
         WorkStealingDispatcher.Builder builder = WorkStealingDispatcher
-                .newBuilder()
-                .setIdGenerator(new IdGenerator("ID_", new SystemDateSource()));
+                .newBuilder();
         if(cacheType.equals(BOUNDED)) {
             builder.setQueueSize(256);
         } else {
             builder.unBoundedCache();
         }
 
+        if(queueType.equals(MAILBOX)) {
+            builder.mailboxQueues();
+        }
+
         dispatcher = builder.build();
         dispatcher.start();
     }
@@ -128,7 +150,6 @@ public class WorkStealingDispatcherBenchmark {
     private void setupThreadPooledWorkStealingDispatcher() {
         WorkStealingDispatcher.Builder builder = WorkStealingDispatcher
                 .newBuilder()
-                .setIdGenerator(new IdGenerator("ID_", new SystemDateSource()))
                 .setExecutorService(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
 
         if(cacheType.equals(BOUNDED)) {
@@ -137,6 +158,10 @@ public class WorkStealingDispatcherBenchmark {
             builder.unBoundedCache();
         }
 
+        if(queueType.equals(MAILBOX)) {
+            builder.mailboxQueues();
+        }
+
         dispatcher = builder.build();
         dispatcher.start();
     }
@@ -157,4 +182,9 @@ public class WorkStealingDispatcherBenchmark {
         dispatcher.dispatchAsync(rndIds[threadState.index++ & MASK], task).get();
     }
 
+    @Benchmark @Threads(4)
+    public void dispatchRandomLongId(ThreadState threadState) throws ExecutionException, InterruptedException {
+        dispatcher.dispatchAsync(rndLongIds[threadState.index++ & MASK], task).get();
+    }
+
 }
@@ -1,5 +1,164 @@
 package vibneiro.dispatchers;
 
-public class Actor {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An entity handling its messages one at a time in the order they were dispatched, see {@link ActorDispatcher}.
+ * Its state is only touched by {@link #receive(Message)}, thus it needs no synchronization.
+ */
+@ThreadSafe
+public abstract class Actor {
+
+    private static final Logger log = LoggerFactory.getLogger(Actor.class);
+
+    private final Queue<Object> mailbox = new ConcurrentLinkedQueue<>(); // messages and envelopes
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Runnable drain = this::drain;
+    // dispatcher of the drain, written by the producer scheduling it
+    private ActorDispatcher dispatcher;
+    // envelope of the message being handled, accessed by the drain only
+    private Envelope<?> current;
+
+    /**
+     * Handles a message, switching over its msgType. Called by one thread at a time.
+     * A failure is logged, or fails the future of the message if any, and the next message is handled.
+     * Listeners of the message are notified right after, by the same thread.
+     */
+    protected abstract void receive(Message message);
+
+    /**
+     * Replies to the message being handled if it was asked, see {@link ActorDispatcher#ask}.
+     * To be called from {@link #receive(Message)} only.
+     * @return false if the message was not asked, or its ask has timed out or has been replied to already
+     */
+    protected final boolean reply(Object reply) {
+        Envelope<?> current = this.current;
+        return current != null && current.reply(reply);
+    }
+
+    /**
+     * @param mail either a message or an {@link Envelope}
+     * @throws java.util.concurrent.RejectedExecutionException - if the executor rejects the drain
+     */
+    void enqueue(Object mail, ActorDispatcher dispatcher) {
+        // offered before counted, thus the drain never polls an empty mailbox
+        mailbox.offer(mail);
+        if (pending.getAndIncrement() == 0) {
+            this.dispatcher = dispatcher;
+            try {
+                dispatcher.schedule(drain);
+            } catch (RejectedExecutionException e) {
+                unschedule(mail, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Rolls back mail whose drain was rejected, so that the next message schedules the actor again.
+     * Mail queued meanwhile by other producers counted on that drain and is failed as well.
+     */
+    private void unschedule(Object mail, RejectedExecutionException e) {
+        mailbox.remove(mail);
+        if (pending.decrementAndGet() != 0) {
+            failPending(e);
+        }
+    }
+
+    /**
+     * Fails queued mail until none is pending, called by the thread owning the drain once it cannot be scheduled.
+     */
+    private void failPending(RejectedExecutionException e) {
+        do {
+            Object queued = mailbox.poll(); // offered before counted, thus never null
+            Envelope<?> envelope = queued instanceof Envelope ? (Envelope<?>) queued : null;
+            Message message = envelope != null ? envelope.message : (Message) queued;
+            message.notifyCompleted(e);
+            if (envelope != null) {
+                envelope.handled(e);
+            } else {
+                log.error("Message to {} is dropped, cannot schedule the actor", this, e);
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    private void drain() {
+        ActorDispatcher dispatcher = this.dispatcher; // might be rewritten by the next producer once idle
+        int throughput = dispatcher.throughput();
+        int processed = 0;
+        do {
+            handle(mailbox.poll());
+            if (pending.decrementAndGet() == 0) {
+                dispatcher.onIdle();
+                return;
+            }
+        } while (++processed < throughput);
+
+        // Only one drain is scheduled at a time, thus messages are handled in order across reschedules
+        try {
+            dispatcher.reschedule(drain);
+        } catch (RejectedExecutionException e) { // e.g. the executor is shut down
+            failPending(e);
+            dispatcher.onIdle();
+        }
+    }
+
+    private void handle(Object mail) {
+        Envelope<?> envelope = mail instanceof Envelope ? (Envelope<?>) mail : null;
+        Message message = envelope != null ? envelope.message : (Message) mail;
+        Throwable failure = null;
+        current = envelope;
+        try {
+            receive(message);
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            current = null;
+        }
+        message.notifyCompleted(failure);
+        if (envelope != null) {
+            envelope.handled(failure);
+        } else if (failure != null) {
+            log.error("Error handling message of {}", this, failure);
+        }
+    }
+
+    /**
+     * A message dispatched along with its future, being the future itself. Completed once the message is handled.
+     */
+    static class Envelope<T> extends CompletableFuture<T> {
+
+        final Message message;
+
+        Envelope(Message message) {
+            this.message = message;
+        }
+
+        /**
+         * Called by the actor once it has handled the message.
+         * @param failure thrown by the actor, null if handled normally
+         */
+        void handled(Throwable failure) {
+            if (failure == null) {
+                complete(null);
+            } else {
+                completeExceptionally(failure);
+            }
+        }
+
+        /**
+         * @return false if the message was not asked or the ask is done already
+         */
+        boolean reply(Object reply) {
+            return false;
+        }
+    }
 }
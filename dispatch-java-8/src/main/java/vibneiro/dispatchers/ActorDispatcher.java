@@ -1,14 +1,191 @@
 package vibneiro.dispatchers;
 
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Dispatches messages to {@link Actor}s, each actor being its own FIFO queue drained on a shared executor.
+ */
+@ThreadSafe
 public class ActorDispatcher {
 
-    /*
-    @Override
-    public CompletableFuture<Void> dispatchAsync(Actor actor, Message msg) {
+    // a busy actor yields its thread every 5 messages, as Akka does by default
+    private static final int DEFAULT_THROUGHPUT = 5;
+    private static final long STOP_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
 
-    } */
+    private ExecutorService service;
+    private int threadsCount = Runtime.getRuntime().availableProcessors();
+    private int throughput = DEFAULT_THROUGHPUT;
+    // actors scheduled or running, counted once per scheduling rather than per message
+    private final AtomicInteger activeActors = new AtomicInteger();
 
+    private volatile boolean started;
+    private volatile boolean stopped;
 
-}
\ No newline at end of file
+    private ActorDispatcher() {
+    }
+
+    public static Builder newBuilder() {
+        return new ActorDispatcher().new Builder();
+    }
+
+    public class Builder {
+
+        private Builder() {
+        }
+
+        public Builder setThreadsCount(int threadsCount) {
+            ActorDispatcher.this.threadsCount = threadsCount;
+            return this;
+        }
+
+        public Builder setExecutorService(ExecutorService service) {
+            ActorDispatcher.this.service = service;
+            return this;
+        }
+
+        /**
+         * Max number of messages of an actor handled per executor submission before the thread is yielded to other
+         * actors, 5 by default.
+         */
+        public Builder setThroughput(int throughput) {
+            if (throughput <= 0) {
+                throw new IllegalArgumentException("throughput must be positive: " + throughput);
+            }
+            ActorDispatcher.this.throughput = throughput;
+            return this;
+        }
+
+        public ActorDispatcher build() {
+            return ActorDispatcher.this;
+        }
+    }
+
+    public void start() {
+
+        if(started) {
+            throw new RuntimeException("Already started or in progress");
+        }
+
+        started  = true;
+
+        if(service == null) {
+            service = Executors.newWorkStealingPool(threadsCount);
+        }
+    }
+
+    /**
+     * Stops accepting messages, waits until the pending ones are handled, then shuts the executor down.
+     */
+    public void stop() {
+
+        if(stopped) {
+            throw new RuntimeException("Already stopped or in progress");
+        }
+
+        stopped  = true;
+
+        while (activeActors.get() != 0) {
+            LockSupport.parkNanos(STOP_PARK_NANOS);
+        }
+        service.shutdown();
+    }
+
+    /**
+     * Dispatches message to the actor without tracking its handling: a failure of the actor is only logged.
+     * @param  actor        FIFO queue of the message
+     * @param  message      message to handle
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    public void dispatch(Actor actor, Message message) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch to actor " + actor);
+        }
+
+        actor.enqueue(message, this);
+    }
+
+    /**
+     * Dispatches message to the actor.
+     * @param  actor        FIFO queue of the message
+     * @param  message      message to handle
+     * @return Future completed once the actor has handled the message, exceptionally if it failed to
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    public CompletableFuture<Void> dispatchAsync(Actor actor, Message message) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch to actor " + actor);
+        }
+
+        Actor.Envelope<Void> envelope = new Actor.Envelope<>(message);
+        actor.enqueue(envelope, this);
+        return envelope;
+    }
+
+    /**
+     * Dispatches message to the actor and awaits its reply, see {@link Actor#reply(Object)}, without blocking a thread:
+     * the timeout is kept by the shared timing wheel, thus a pending ask costs a constant amount of memory and the
+     * timeout is set, cancelled on reply and expired in O(1).
+     * @param  actor        FIFO queue of the message
+     * @param  message      message to handle
+     * @param  timeout      how long to wait for the reply
+     * @return Future of the reply, completed exceptionally with TimeoutException if the actor has not replied
+     *         by the timeout, or with the failure of the actor; cancelling it cancels the timeout
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    public CompletableFuture<Object> ask(Actor actor, Message message, Duration timeout) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch to actor " + actor);
+        }
+
+        Ask ask = Ask.arm(message, timeout);
+        try {
+            actor.enqueue(ask, this);
+        } catch (RejectedExecutionException e) {
+            ask.cancel(false);
+            throw e;
+        }
+        return ask;
+    }
+
+    int throughput() {
+        return throughput;
+    }
+
+    /**
+     * Schedules an actor that had no pending messages.
+     */
+    void schedule(Runnable drain) {
+        activeActors.incrementAndGet();
+        try {
+            service.execute(drain);
+        } catch (RejectedExecutionException e) {
+            activeActors.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Schedules an actor again once it has handled throughput messages.
+     */
+    void reschedule(Runnable drain) {
+        service.execute(drain);
+    }
+
+    /**
+     * Called by an actor once it has handled all its pending messages.
+     */
+    void onIdle() {
+        activeActors.decrementAndGet();
+    }
+}
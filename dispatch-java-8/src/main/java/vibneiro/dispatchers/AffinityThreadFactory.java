@@ -0,0 +1,72 @@
+package vibneiro.dispatchers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates threads pinned to CPU sets, round robin: thread N is pinned to the set N % number of sets.
+ */
+@ThreadSafe
+public class AffinityThreadFactory implements ThreadFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(AffinityThreadFactory.class);
+
+    private final String prefix;
+    private final int[][] cpuSets;
+    private final CpuAffinity affinity;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Each thread is pinned to a core of its own, as long as there are as many cores as threads.
+     */
+    public AffinityThreadFactory(String prefix, int... cpus) {
+        this(prefix, CpuAffinity.taskset(), eachOf(cpus));
+    }
+
+    public AffinityThreadFactory(String prefix, CpuAffinity affinity, int[]... cpuSets) {
+        if (cpuSets.length == 0) {
+            throw new IllegalArgumentException("No cpu sets");
+        }
+        this.prefix = prefix;
+        this.affinity = affinity;
+        this.cpuSets = cpuSets.clone();
+    }
+
+    private static int[][] eachOf(int[] cpus) {
+        int[][] cpuSets = new int[cpus.length][];
+        for (int i = 0; i < cpus.length; i++) {
+            cpuSets[i] = new int[] {cpus[i]};
+        }
+        return cpuSets;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return newThread(r, counter.getAndIncrement());
+    }
+
+    /**
+     * Creates the thread of a worker pinned to the set index % number of sets, thus a worker restarted with the same
+     * index gets the same cpus back rather than the next ones in turn.
+     */
+    public Thread newThread(Runnable r, int index) {
+        int[] cpus = cpuSets[index % cpuSets.length];
+        Thread thread = new Thread(() -> {
+            try {
+                affinity.pinCurrentThread(cpus);
+                log.info("{} pinned to cpus {}", Thread.currentThread().getName(), Arrays.toString(cpus));
+            } catch (Throwable t) {
+                log.warn("Exception thrown when pinning {} to cpus {}, runs unpinned",
+                        Thread.currentThread().getName(), Arrays.toString(cpus), t);
+            }
+            r.run();
+        }, prefix + index);
+        thread.setDaemon(false);
+        return thread;
+    }
+}
@@ -0,0 +1,72 @@
+package vibneiro.dispatchers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A message asked by {@link ActorDispatcher#ask}: the future of the reply and the task of its timeout.
+ */
+final class Ask extends Actor.Envelope<Object> implements Runnable {
+
+    private final long timeoutNanos;
+    private TimerWheel.Timeout timeout; // written before the ask is queued
+
+    private Ask(Message message, long timeoutNanos) {
+        super(message);
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    static Ask arm(Message message, Duration timeout) {
+        Ask ask = new Ask(message, timeout.toNanos());
+        ask.timeout = TimerWheel.shared().schedule(ask, ask.timeoutNanos);
+        return ask;
+    }
+
+    @Override
+    void handled(Throwable failure) {
+        if (failure != null && completeExceptionally(failure)) {
+            timeout.cancel();
+        }
+    }
+
+    @Override
+    boolean reply(Object reply) {
+        if (!complete(reply)) {
+            return false;
+        }
+        timeout.cancel();
+        return true;
+    }
+
+    /**
+     * Run by the timer thread.
+     */
+    @Override
+    public void run() {
+        completeExceptionally(new AskTimeoutException(timeoutNanos));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            timeout.cancel();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Without a stack trace, which would only point at the timer thread.
+     */
+    private static final class AskTimeoutException extends TimeoutException {
+
+        AskTimeoutException(long timeoutNanos) {
+            super("No reply within " + Duration.ofNanos(timeoutNanos));
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
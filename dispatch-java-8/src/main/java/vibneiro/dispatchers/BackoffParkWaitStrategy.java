@@ -0,0 +1,49 @@
+package vibneiro.dispatchers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spins, then yields, then parks for exponentially growing periods from minParkNanos up to maxParkNanos.
+ * A parked worker is still unparked by the next producer, the timeout bounds the time spent unsignalled.
+ */
+public class BackoffParkWaitStrategy implements WaitStrategy {
+
+    private static final int DEFAULT_SPIN_TRIES = 100;
+    private static final int DEFAULT_YIELD_TRIES = 10;
+    private static final long DEFAULT_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long DEFAULT_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public BackoffParkWaitStrategy() {
+        this(DEFAULT_SPIN_TRIES, DEFAULT_YIELD_TRIES, DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS);
+    }
+
+    public BackoffParkWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("0 < minParkNanos <= maxParkNanos is expected: "
+                    + minParkNanos + ", " + maxParkNanos);
+        }
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    public void idle(int idleCount, Parker parker) {
+        if (idleCount <= spinTries) {
+            return;
+        }
+        if (idleCount <= spinTries + yieldTries) {
+            Thread.yield();
+            return;
+        }
+        int parks = idleCount - spinTries - yieldTries;
+        long nanos = minParkNanos << Math.min(parks - 1, 30);
+        parker.park(nanos <= 0 || nanos > maxParkNanos ? maxParkNanos : nanos);
+    }
+}
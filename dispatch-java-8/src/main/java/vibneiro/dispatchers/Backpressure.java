@@ -0,0 +1,141 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pending tasks limits shared by the queues of a dispatcher: one per queue and one for the dispatcher in total.
+ * Limits are soft: concurrent producers might overshoot them by the number of producers.
+ */
+@ThreadSafe
+final class Backpressure {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int maxPendingPerQueue;
+    private final int maxPendingTasks;
+    private final OverflowPolicy policy;
+    private final OverflowStats stats;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Control task of a dispatcher, e.g. a handoff barrier, that {@link OverflowPolicy#DROP_OLDEST} never drops.
+     */
+    interface Undroppable extends Runnable {
+    }
+
+    /**
+     * Task let in regardless of the limits, e.g. a due scheduled task dispatched by the shared timer thread,
+     * which must neither wait for room nor run the task itself.
+     */
+    interface Exempt extends Runnable {
+    }
+
+    Backpressure(int maxPendingPerQueue, int maxPendingTasks, OverflowPolicy policy, OverflowStats stats) {
+        this.maxPendingPerQueue = maxPendingPerQueue;
+        this.maxPendingTasks = maxPendingTasks;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    boolean hasRoom(int queuePending) {
+        return queuePending < maxPendingPerQueue
+                && (maxPendingTasks == Integer.MAX_VALUE || pendingTasks.get() < maxPendingTasks);
+    }
+
+    /**
+     * Rejects the tasks of producers waiting for room, e.g. once the dispatcher is stopped.
+     */
+    void close() {
+        closed = true;
+    }
+
+    void onEnqueued() {
+        if (maxPendingTasks != Integer.MAX_VALUE) {
+            pendingTasks.incrementAndGet();
+        }
+    }
+
+    void onCompleted() {
+        if (maxPendingTasks != Integer.MAX_VALUE) {
+            pendingTasks.decrementAndGet();
+        }
+    }
+
+    /**
+     * Applies the policy to a task that does not fit into the queue.
+     * @param ordered true if the task has a dispatchId: it must not overtake queued tasks, thus is never run by the caller
+     * @return true if the task has been taken care of, false if the caller must retry to enqueue it
+     * @throws RejectedExecutionException - if the task is rejected or the producer is interrupted while waiting
+     */
+    <T extends Runnable> boolean onOverflow(Queue<T> queue, AtomicInteger queuePending, T task, boolean ordered) {
+        switch (policy) {
+            case REJECT:
+                stats.recordRejected();
+                throw new RejectedExecutionException("Pending tasks limit is reached");
+            case CALLER_RUNS:
+                if (ordered) {
+                    stats.recordBlocked();
+                    awaitRoom(queuePending);
+                    return false;
+                }
+                stats.recordCallerRuns();
+                task.run();
+                return true;
+            case DROP_OLDEST:
+                // a single pass: control tasks are moved behind, the first other task is dropped
+                for (int i = queuePending.get(); i > 0; i--) {
+                    T oldest = queue.poll();
+                    if (oldest == null) {
+                        break;
+                    }
+                    if (!(oldest instanceof Undroppable)) {
+                        stats.recordDropped();
+                        if (oldest instanceof Future) {
+                            ((Future<?>) oldest).cancel(false);
+                        }
+                        offer(queue, task);
+                        return true;
+                    }
+                    offer(queue, oldest);
+                }
+                // nothing to drop: the pending tasks are running or control tasks, wait for them
+                awaitRoom(queuePending);
+                return false;
+            case BLOCK:
+                stats.recordBlocked();
+                awaitRoom(queuePending);
+                return false;
+            default:
+                throw new AssertionError("Unknown policy: " + policy);
+        }
+    }
+
+    /**
+     * Puts back a task taken out of a bounded queue, whose slot might have been taken meanwhile by a control task.
+     */
+    private static <T> void offer(Queue<T> queue, T task) {
+        while (!queue.offer(task)) {
+            Thread.yield();
+        }
+    }
+
+    private void awaitRoom(AtomicInteger queuePending) {
+        do {
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            if (closed) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot wait for room in the queue");
+            }
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in the queue");
+            }
+        } while (!hasRoom(queuePending.get()));
+    }
+}
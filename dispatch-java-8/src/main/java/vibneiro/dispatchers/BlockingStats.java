@@ -0,0 +1,83 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of blocking tasks run by a dispatcher and of the threads its ForkJoinPool started to compensate for them.
+ */
+@ThreadSafe
+public final class BlockingStats {
+
+    private final LongAdder blockingTasks = new LongAdder();
+    private final AtomicInteger blockedTasks = new AtomicInteger();
+    private final AtomicInteger peakBlockedTasks = new AtomicInteger();
+    private final AtomicInteger peakCompensationThreads = new AtomicInteger();
+    private volatile ForkJoinPool pool; // null unless the executor is a ForkJoinPool
+
+    BlockingStats() {
+    }
+
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    void onBlocked(ForkJoinPool pool) {
+        blockingTasks.increment();
+        updateMax(peakBlockedTasks, blockedTasks.incrementAndGet());
+        if (pool != null) {
+            updateMax(peakCompensationThreads, pool.getPoolSize() - pool.getParallelism());
+        }
+    }
+
+    void onUnblocked() {
+        blockedTasks.decrementAndGet();
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        for (int current; value > (current = max.get()); ) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of blocking tasks started
+     */
+    public long getBlockingTasks() {
+        return blockingTasks.sum();
+    }
+
+    /**
+     * @return number of blocking tasks running now
+     */
+    public int getBlockedTasks() {
+        return blockedTasks.get();
+    }
+
+    public int getPeakBlockedTasks() {
+        return peakBlockedTasks.get();
+    }
+
+    /**
+     * @return number of pool threads above its parallelism now, idle compensation threads are retired by the pool
+     */
+    public int getCompensationThreads() {
+        ForkJoinPool pool = this.pool;
+        return pool == null ? 0 : Math.max(0, pool.getPoolSize() - pool.getParallelism());
+    }
+
+    public int getPeakCompensationThreads() {
+        return Math.max(0, peakCompensationThreads.get());
+    }
+
+    @Override
+    public String toString() {
+        return "BlockingStats{blockingTasks=" + blockingTasks + ", blockedTasks=" + blockedTasks
+                + ", peakBlockedTasks=" + peakBlockedTasks + ", compensationThreads=" + getCompensationThreads()
+                + ", peakCompensationThreads=" + getPeakCompensationThreads() + '}';
+    }
+}
@@ -0,0 +1,12 @@
+package vibneiro.dispatchers;
+
+/**
+ * Parks a worker until a producer signals it. No CPU is burnt while idle, suitable for shared hosts.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(int idleCount, Parker parker) {
+        parker.park(0);
+    }
+}
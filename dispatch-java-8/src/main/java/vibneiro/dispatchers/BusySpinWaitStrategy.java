@@ -0,0 +1,12 @@
+package vibneiro.dispatchers;
+
+/**
+ * Polls the queue in a tight loop. The lowest latency, but a worker occupies a core even when idle,
+ * thus workers must not outnumber isolated cores.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(int idleCount, Parker parker) {
+    }
+}
@@ -4,10 +4,15 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vibneiro.idgenerators.IdGenerator;
-import vibneiro.idgenerators.time.SystemDateSource;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 /**
  * @author: Ivan Voroshilin
@@ -15,18 +20,39 @@ import java.util.concurrent.*;
  * @since 1.8
  * CaffeineCachedDispatcher
  *
+ * With mailbox queues, each dispatchId owns a {@link DispatchQueue} weakly referenced by the cache.
+ *
+ * Long dispatchIds bypass the cache, see {@link LongDispatchQueueMap}.
+ *
+ * With priority lanes, tasks are submitted through {@link PriorityLanes} as in {@link WorkStealingDispatcher}.
+ *
  */
 @ThreadSafe
 public class CaffeineCachedDispatcher implements Dispatcher {
 
         private static final Logger log = LoggerFactory.getLogger(CaffeineCachedDispatcher.class);
 
+        // drain a dispatchId until its queue is empty
+        private static final int DEFAULT_THROUGHPUT = Integer.MAX_VALUE;
+
         private ExecutorService service;
 
-        private IdGenerator idGenerator = new IdGenerator("ID_", new SystemDateSource());
+        private IdGenerator idGenerator; // null: tasks without a dispatchId get no id
+        private Executor executor; // the service, behind priority lanes if any
+        private PriorityLanes lanes; // null without priority lanes
+        private int[] priorityWeights;
+
         private int queueSize = 1024;
         private int threadsCount = Runtime.getRuntime().availableProcessors();
         private ConcurrentMap<Object, Object> cachedDispatchQueues;
+        private LongDispatchQueueMap longDispatchQueues;
+        private boolean mailboxQueues = false;
+        private int throughput = DEFAULT_THROUGHPUT;
+        private int maxPendingTasksPerKey = Integer.MAX_VALUE;
+        private int maxPendingTasks = Integer.MAX_VALUE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+        private final OverflowStats overflowStats = new OverflowStats();
+        private Backpressure backpressure;
 
         private volatile boolean started;
         private volatile boolean stopped;
@@ -48,6 +74,10 @@ public class CaffeineCachedDispatcher implements Dispatcher {
                 return this;
             }
 
+            /**
+             * Tasks without a dispatchId are dispatched under ids of the generator,
+             * by default they go straight to the executor.
+             */
             public Builder setIdGenerator(IdGenerator idGenerator) {
                 CaffeineCachedDispatcher.this.idGenerator = idGenerator;
                 return this;
@@ -63,25 +93,134 @@ public class CaffeineCachedDispatcher implements Dispatcher {
                 return this;
             }
 
+            /**
+             * Tasks of each dispatchId are put into a lock-free mailbox instead of a chain of futures.
+             */
+            public Builder mailboxQueues() {
+                CaffeineCachedDispatcher.this.mailboxQueues = true;
+                return this;
+            }
+
+            /**
+             * Ready tasks wait in a lane per {@link Priority}, the lanes are served by weighted round robin,
+             * 8:4:1 by default.
+             */
+            public Builder priorityLanes() {
+                if (CaffeineCachedDispatcher.this.priorityWeights == null) {
+                    CaffeineCachedDispatcher.this.priorityWeights = PriorityLanes.DEFAULT_WEIGHTS.clone();
+                }
+                return this;
+            }
+
+            /**
+             * Shares of executor threads taken by HIGH, NORMAL and BULK lanes when all of them have tasks.
+             * Implies {@link #priorityLanes()}.
+             */
+            public Builder setPriorityWeights(int high, int normal, int bulk) {
+                CaffeineCachedDispatcher.this.priorityWeights = PriorityLanes.weights(high, normal, bulk);
+                return this;
+            }
+
+            /**
+             * Max number of tasks of a dispatchId run per executor submission before the thread is yielded to other
+             * dispatchIds. Implies {@link #mailboxQueues()}.
+             */
+            public Builder setThroughput(int throughput) {
+                if (throughput <= 0) {
+                    throw new IllegalArgumentException("throughput must be positive: " + throughput);
+                }
+                CaffeineCachedDispatcher.this.throughput = throughput;
+                CaffeineCachedDispatcher.this.mailboxQueues = true;
+                return this;
+            }
+
+            /**
+             * Limits the number of queued and running tasks of a dispatchId. Implies {@link #mailboxQueues()}.
+             */
+            public Builder setMaxPendingTasksPerKey(int maxPendingTasksPerKey) {
+                if (maxPendingTasksPerKey <= 0) {
+                    throw new IllegalArgumentException("maxPendingTasksPerKey must be positive: " + maxPendingTasksPerKey);
+                }
+                CaffeineCachedDispatcher.this.maxPendingTasksPerKey = maxPendingTasksPerKey;
+                CaffeineCachedDispatcher.this.mailboxQueues = true;
+                return this;
+            }
+
+            /**
+             * Limits the number of queued and running tasks of all dispatchIds. Implies {@link #mailboxQueues()}.
+             */
+            public Builder setMaxPendingTasks(int maxPendingTasks) {
+                if (maxPendingTasks <= 0) {
+                    throw new IllegalArgumentException("maxPendingTasks must be positive: " + maxPendingTasks);
+                }
+                CaffeineCachedDispatcher.this.maxPendingTasks = maxPendingTasks;
+                CaffeineCachedDispatcher.this.mailboxQueues = true;
+                return this;
+            }
+
+            /**
+             * What to do with a task once a pending tasks limit is reached, {@link OverflowPolicy#REJECT} by default.
+             */
+            public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+                CaffeineCachedDispatcher.this.overflowPolicy = overflowPolicy;
+                return this;
+            }
+
             public CaffeineCachedDispatcher build() {
                 return CaffeineCachedDispatcher.this;
             }
         }
 
+        /**
+         * Unless an id generator is set, the task is run by the executor without touching the cache, as a unique
+         * dispatchId would never be reused.
+         * Falls back to a mailbox of its own if pending tasks are limited, so that the limits are applied.
+         */
         @Override
         public CompletableFuture<Void> dispatchAsync(Runnable task) {
-            return dispatchAsync(idGenerator.nextId(), task);
+
+            if (idGenerator != null) {
+                return dispatchAsync(idGenerator.nextId(), task);
+            }
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a task");
+            }
+
+            if (backpressure != null) {
+                CompletableTask completableTask = new CompletableTask(task);
+                new DispatchQueue(executor, throughput, backpressure, false).enqueue(completableTask);
+                return completableTask;
+            }
+
+            return CompletableFuture.runAsync(task, executor);
         }
 
         @Override
-        @SuppressWarnings("unchecked")
         public CompletableFuture<Void> dispatchAsync(String dispatchId, Runnable task) {
+            return dispatchAsync(dispatchId, Priority.NORMAL, task);
+        }
 
+        @Override
+        @SuppressWarnings("unchecked")
+        public CompletableFuture<Void> dispatchAsync(String dispatchId, Priority priority, Runnable task) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            if (mailboxQueues) {
+                CompletableTask completableTask = new CompletableTask(task);
+                dispatchToQueue(dispatchId, priority, completableTask);
+                return completableTask;
+            }
+
+            Executor chainExecutor = lanes != null ? lanes.lane(priority) : service;
             try {
                 return (CompletableFuture<Void>) cachedDispatchQueues.compute(dispatchId, (k, queue) -> {
                     CompletableFuture<Void> voidCompletableFuture = (queue == null)
-                            ? CompletableFuture.runAsync(task)
-                            : ((CompletableFuture<Void>) queue).thenRunAsync(task);
+                            ? CompletableFuture.runAsync(task, chainExecutor)
+                            : ((CompletableFuture<Void>) queue).thenRunAsync(task, chainExecutor);
                     return voidCompletableFuture;
                 });
             } catch(Throwable t) {
@@ -90,6 +229,199 @@ public class CaffeineCachedDispatcher implements Dispatcher {
             }
         }
 
+        /**
+         * Futures chains: the task is chained by thenApplyAsync, thus the future of its result is the chain link
+         * itself.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletableFuture<T> submitAsync(String dispatchId, Supplier<T> supplier) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            if (mailboxQueues) {
+                SupplyingTask<T> supplyingTask = new SupplyingTask<>(supplier);
+                dispatchToQueue(dispatchId, Priority.NORMAL, supplyingTask);
+                return supplyingTask;
+            }
+
+            Executor chainExecutor = lanes != null ? lanes.lane(Priority.NORMAL) : service;
+            try {
+                return (CompletableFuture<T>) cachedDispatchQueues.compute(dispatchId, (k, queue) -> (queue == null)
+                        ? CompletableFuture.supplyAsync(supplier, chainExecutor)
+                        : ((CompletableFuture<?>) queue).thenApplyAsync(previous -> supplier.get(), chainExecutor));
+            } catch(Throwable t) {
+                log.warn("Exception thrown when calling submitAsync for dispatchId[{}]", dispatchId, t);
+                throw t;
+            }
+        }
+
+        @Override
+        public <T> CompletableFuture<T> submitAsync(long dispatchId, Supplier<T> supplier) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            SupplyingTask<T> supplyingTask = new SupplyingTask<>(supplier);
+            dispatchToQueue(dispatchId, Priority.NORMAL, supplyingTask);
+            return supplyingTask;
+        }
+
+        /**
+         * A batch costs a compute or a mailbox enqueue per dispatchId rather than per task: the tasks of a dispatchId are
+         * dispatched as a single task.
+         */
+        @Override
+        public CompletableFuture<Void> dispatchAllAsync(Collection<KeyedTask> tasks) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a batch");
+            }
+
+            DispatchBatch batch = DispatchBatch.of(tasks);
+            for (DispatchBatch.Group group : batch.groups()) {
+                try {
+                    if (group.hasLongDispatchId()) {
+                        dispatch(group.longDispatchId(), group);
+                    } else {
+                        dispatch(group.dispatchId(), group);
+                    }
+                } catch (RejectedExecutionException e) { // the overflow policy or stopped meanwhile
+                    group.completeExceptionally(e);
+                }
+            }
+            return batch.future();
+        }
+
+        @Override
+        public CompletableFuture<Void> dispatchAsync(long dispatchId, Runnable task) {
+            return dispatchAsync(dispatchId, Priority.NORMAL, task);
+        }
+
+        @Override
+        public CompletableFuture<Void> dispatchAsync(long dispatchId, Priority priority, Runnable task) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            CompletableTask completableTask = new CompletableTask(task);
+            dispatchToQueue(dispatchId, priority, completableTask);
+            return completableTask;
+        }
+
+        /**
+         * With mailbox queues, the task is enqueued as is. Otherwise, futures are the queue itself.
+         */
+        @Override
+        public void dispatch(String dispatchId, Runnable task) {
+            dispatch(dispatchId, Priority.NORMAL, task);
+        }
+
+        @Override
+        public void dispatch(long dispatchId, Runnable task) {
+            dispatch(dispatchId, Priority.NORMAL, task);
+        }
+
+        @Override
+        public void dispatch(String dispatchId, Priority priority, Runnable task) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            if (mailboxQueues) {
+                dispatchToQueue(dispatchId, priority, task);
+            } else {
+                dispatchAsync(dispatchId, priority, task);
+            }
+        }
+
+        @Override
+        public void dispatch(long dispatchId, Priority priority, Runnable task) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+            }
+
+            dispatchToQueue(dispatchId, priority, task);
+        }
+
+        @Override
+        public void dispatch(String dispatchId, Runnable task, MessageCompletedListener listener) {
+            dispatch(dispatchId, new ListenedTask(task, listener));
+        }
+
+        @Override
+        public void dispatch(long dispatchId, Runnable task, MessageCompletedListener listener) {
+            dispatch(dispatchId, new ListenedTask(task, listener));
+        }
+
+        @Override
+        public CompletableFuture<Void> scheduleAsync(String dispatchId, Runnable task, Duration delay) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+            }
+
+            return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
+        }
+
+        @Override
+        public CompletableFuture<Void> scheduleAsync(long dispatchId, Runnable task, Duration delay) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+            }
+
+            return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
+        }
+
+        @Override
+        public CompletableFuture<Void> scheduleAtFixedRateAsync(String dispatchId, Runnable task, Duration initialDelay,
+                                                                Duration period) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+            }
+
+            return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+        }
+
+        @Override
+        public CompletableFuture<Void> scheduleAtFixedRateAsync(long dispatchId, Runnable task, Duration initialDelay,
+                                                                Duration period) {
+
+            if(stopped) {
+                throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+            }
+
+            return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+        }
+
+        private void dispatchToQueue(long dispatchId, Priority priority, Runnable task) {
+            try {
+                longDispatchQueues.enqueue(dispatchId, priority, task);
+            } catch(Throwable t) {
+                log.warn("Exception thrown when calling dispatchToQueue for dispatchId[{}]", dispatchId, t);
+                throw t;
+            }
+        }
+
+        private void dispatchToQueue(String dispatchId, Priority priority, Runnable task) {
+            try {
+                // A queue is never retired here: it stays reachable while it has pending tasks
+                ((DispatchQueue) cachedDispatchQueues.computeIfAbsent(dispatchId,
+                        k -> new DispatchQueue(executor, throughput, backpressure))).enqueue(task, priority);
+            } catch(Throwable t) {
+                log.warn("Exception thrown when calling dispatchToQueue for dispatchId[{}]", dispatchId, t);
+                throw t;
+            }
+        }
+
         private static ExecutorService newDefaultForkJoinPool(int threadsCount) {
             return Executors.newWorkStealingPool(threadsCount);
         }
@@ -105,15 +437,47 @@ public class CaffeineCachedDispatcher implements Dispatcher {
             if(service == null) {
                 service = newDefaultForkJoinPool(threadsCount);
             }
-            cachedDispatchQueues = Caffeine.newBuilder()
+            executor = service;
+            if (priorityWeights != null) {
+                lanes = new PriorityLanes(service, priorityWeights);
+                executor = lanes;
+            }
+            Caffeine<Object, Object> caffeine = Caffeine.newBuilder()
                     .weakValues()
-                    .executor(service)
-                    .maximumSize(queueSize)
-                    .build().asMap();
+                    .executor(service);
+            if (!mailboxQueues) {
+                // Size eviction might drop a busy mailbox, weak values alone are safe for them
+                caffeine.maximumSize(queueSize);
+            }
+            cachedDispatchQueues = caffeine.build().asMap();
+            if (maxPendingTasksPerKey != Integer.MAX_VALUE || maxPendingTasks != Integer.MAX_VALUE) {
+                backpressure = new Backpressure(maxPendingTasksPerKey, maxPendingTasks, overflowPolicy, overflowStats);
+            }
+            longDispatchQueues = new LongDispatchQueueMap(threadsCount, executor, throughput, backpressure, queueSize);
+
+        }
 
+        /**
+         * @return counters of tasks that hit the pending tasks limits
+         */
+        public OverflowStats getOverflowStats() {
+            return overflowStats;
         }
 
         public void stop() {
+            drainAsync(null).join(); //blocking
+        }
+
+        /**
+         * Mailboxes and futures chains are drained in parallel, then the executor is shut down gracefully.
+         * Tasks of mailboxes abandoned at the deadline are handed back, futures chains are left to the executor.
+         */
+        @Override
+        public CompletableFuture<ShutdownReport> stopAsync(Duration deadline) {
+            return drainAsync(Objects.requireNonNull(deadline, "deadline"));
+        }
+
+        private CompletableFuture<ShutdownReport> drainAsync(Duration deadline) {
 
             if(stopped) {
                 throw new RuntimeException("Already stopped or in progress");
@@ -121,15 +485,18 @@ public class CaffeineCachedDispatcher implements Dispatcher {
 
             stopped  = true;
 
-            CompletableFuture<?>[] futures = cachedDispatchQueues
-                    .values()
-                    .stream()
-                    .filter(v -> v != null)
-                    .toArray(CompletableFuture<?>[]::new);
-
-            CompletableFuture.allOf(futures).join();
+            List<DispatchQueue> queues = new ArrayList<>(longDispatchQueues.queues());
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (Object v : cachedDispatchQueues.values()) {
+                if (mailboxQueues) {
+                    queues.add((DispatchQueue) v);
+                } else {
+                    futures.add((CompletableFuture<?>) v);
+                }
+            }
 
-            service.shutdown();
+            return DrainingShutdown.drain(queues, futures, deadline)
+                    .whenComplete((report, t) -> service.shutdown());
         }
 
     }
@@ -0,0 +1,28 @@
+package vibneiro.dispatchers;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A task being its own future, saves an allocation per dispatch compared to a wrapping lambda.
+ */
+final class CompletableTask extends CompletableFuture<Void> implements Runnable {
+
+    private final Runnable task;
+
+    CompletableTask(Runnable task) {
+        this.task = task;
+    }
+
+    @Override
+    public void run() {
+        if (isDone()) { // cancelled while queued
+            return;
+        }
+        try {
+            task.run();
+            complete(null);
+        } catch (Throwable t) {
+            completeExceptionally(t);
+        }
+    }
+}
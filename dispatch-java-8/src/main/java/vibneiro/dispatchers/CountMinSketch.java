@@ -0,0 +1,67 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of long keys, halved on {@link #decay()} to favour recent keys.
+ */
+@ThreadSafe
+final class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param width counters per row, rounded up to a power of 2
+     */
+    CountMinSketch(int width) {
+        this.width = Integer.highestOneBit(Math.max(width, 2) - 1) << 1;
+        this.mask = this.width - 1;
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+    }
+
+    /**
+     * @return estimate of the key count including this one
+     */
+    long add(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(i * width + ((h1 + i * h2) & mask)));
+        }
+        return estimate;
+    }
+
+    long estimate(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, counters.get(i * width + ((h1 + i * h2) & mask)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Halves all counters, concurrent increments might be lost.
+     */
+    void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    // murmur3 finalizer
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -0,0 +1,33 @@
+package vibneiro.dispatchers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Pins the calling thread to a set of CPUs, by {@link #taskset()} unless another implementation is plugged in.
+ */
+@FunctionalInterface
+public interface CpuAffinity {
+
+    /**
+     * @throws IllegalStateException - if the thread cannot be pinned
+     */
+    void pinCurrentThread(int[] cpus);
+
+    /**
+     * Linux only: runs taskset for the id of the calling thread, i.e. spawns a process per pinned thread.
+     */
+    static CpuAffinity taskset() {
+        return TasksetCpuAffinity.INSTANCE;
+    }
+
+    /**
+     * @return CPUs of a NUMA node, as listed by /sys/devices/system/node/node{node}/cpulist on Linux
+     */
+    static int[] numaNodeCpus(int node) throws IOException {
+        byte[] cpuList = Files.readAllBytes(Paths.get("/sys/devices/system/node/node" + node + "/cpulist"));
+        return TasksetCpuAffinity.parseCpuList(new String(cpuList, StandardCharsets.US_ASCII));
+    }
+}
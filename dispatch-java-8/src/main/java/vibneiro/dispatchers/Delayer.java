@@ -0,0 +1,33 @@
+package vibneiro.dispatchers;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread shared by all dispatchers to fire deadlines and periodic housekeeping.
+ */
+final class Delayer {
+
+    private static final ScheduledThreadPoolExecutor delayer;
+
+    static {
+        delayer = new ScheduledThreadPoolExecutor(1, new CountingThreadFactory(true, "dispatcher-delayer-"));
+        delayer.setRemoveOnCancelPolicy(true);
+    }
+
+    private Delayer() {
+    }
+
+    static ScheduledFuture<?> delay(Runnable command, Duration delay) {
+        return delayer.schedule(command, delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The command must not block, as it would hold up the deadlines of all dispatchers.
+     */
+    static ScheduledFuture<?> every(Runnable command, Duration period) {
+        return delayer.scheduleWithFixedDelay(command, period.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+    }
+}
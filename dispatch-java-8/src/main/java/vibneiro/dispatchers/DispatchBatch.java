@@ -0,0 +1,88 @@
+package vibneiro.dispatchers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tasks of {@link Dispatcher#dispatchAllAsync(Collection)} grouped by dispatchId, run in order as a single task.
+ */
+final class DispatchBatch {
+
+    private final List<Group> groups;
+
+    private DispatchBatch(List<Group> groups) {
+        this.groups = groups;
+    }
+
+    static DispatchBatch of(Collection<KeyedTask> tasks) {
+        Map<Object, Group> groups = new LinkedHashMap<>();
+        for (KeyedTask task : tasks) {
+            Object key = task.hasLongDispatchId() ? (Object) task.getLongDispatchId() : task.getDispatchId();
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(task);
+                groups.put(key, group);
+            }
+            group.tasks.add(task.getTask());
+        }
+        return new DispatchBatch(new ArrayList<>(groups.values()));
+    }
+
+    List<Group> groups() {
+        return groups;
+    }
+
+    CompletableFuture<Void> future() {
+        return CompletableFuture.allOf(groups.toArray(new CompletableFuture<?>[groups.size()]));
+    }
+
+    static final class Group extends CompletableFuture<Void> implements Runnable {
+
+        private final String dispatchId; // null for a long dispatchId
+        private final long longDispatchId;
+        private final List<Runnable> tasks = new ArrayList<>(1);
+
+        private Group(KeyedTask first) {
+            this.dispatchId = first.getDispatchId();
+            this.longDispatchId = first.getLongDispatchId();
+        }
+
+        String dispatchId() {
+            return dispatchId;
+        }
+
+        long longDispatchId() {
+            return longDispatchId;
+        }
+
+        boolean hasLongDispatchId() {
+            return dispatchId == null;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) { // cancelled while queued
+                return;
+            }
+            Throwable failure = null;
+            for (Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                }
+            }
+            if (failure == null) {
+                complete(null);
+            } else {
+                completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package vibneiro.dispatchers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free mailbox of a single dispatchId, submitted to the executor once per burst of tasks.
+ */
+@ThreadSafe
+final class DispatchQueue implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchQueue.class);
+
+    private static final int RETIRED = -1;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Executor executor;
+    private final PriorityLanes lanes; // null unless the executor has priority lanes
+    private final int throughput;
+    private final Backpressure backpressure; // null if unbounded
+    private final boolean ordered; // false for a task without a dispatchId
+    // lane of the drain, written by the producer scheduling it
+    private Priority priority = Priority.NORMAL;
+    private volatile boolean halted;
+
+    DispatchQueue(Executor executor, int throughput, Backpressure backpressure) {
+        this(executor, throughput, backpressure, true);
+    }
+
+    /**
+     * @param ordered false for a queue of a single task without a dispatchId, which the caller may run on overflow
+     */
+    DispatchQueue(Executor executor, int throughput, Backpressure backpressure, boolean ordered) {
+        this.executor = executor;
+        this.lanes = executor instanceof PriorityLanes ? (PriorityLanes) executor : null;
+        this.throughput = throughput;
+        this.backpressure = backpressure;
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return false if the queue has been retired, the caller must look up a fresh queue then
+     * @throws java.util.concurrent.RejectedExecutionException - if the task does not fit and the policy rejects it
+     */
+    boolean enqueue(Runnable task) {
+        return enqueue(task, Priority.NORMAL, isBounded(task));
+    }
+
+    /**
+     * Same as {@link #enqueue(Runnable)}, the priority picks the lane of the drain if the queue is idle.
+     */
+    boolean enqueue(Runnable task, Priority priority) {
+        return enqueue(task, priority, isBounded(task));
+    }
+
+    private boolean isBounded(Runnable task) {
+        return backpressure != null && !(task instanceof Backpressure.Exempt);
+    }
+
+    /**
+     * @return future completed once all tasks enqueued so far have been run
+     */
+    CompletableFuture<Void> drained() {
+        DrainMarker drained = new DrainMarker();
+        if (!enqueue(drained, Priority.NORMAL, false)) {
+            drained.complete(null); // retired, nothing is pending
+        }
+        return drained;
+    }
+
+    private boolean enqueue(Runnable task, Priority priority, boolean bounded) {
+        int count;
+        while (true) {
+            count = pending.get();
+            if (count == RETIRED) {
+                return false;
+            }
+            if (bounded && !backpressure.hasRoom(count)) {
+                if (backpressure.onOverflow(tasks, pending, task, ordered)) {
+                    return true;
+                }
+                continue;
+            }
+            if (pending.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+
+        tasks.offer(task);
+        if (backpressure != null) {
+            backpressure.onEnqueued();
+        }
+
+        if (count == 0) {
+            this.priority = priority;
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                unschedule(task, e);
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rolls back a task whose drain was rejected, so that the next producer schedules the queue again.
+     * Tasks enqueued meanwhile by other producers counted on that drain and are failed as well.
+     */
+    private void unschedule(Runnable task, RejectedExecutionException e) {
+        tasks.remove(task);
+        if (backpressure != null) {
+            backpressure.onCompleted();
+        }
+        if (pending.decrementAndGet() != 0) {
+            failPending(e);
+        }
+    }
+
+    /**
+     * Fails queued tasks until none is pending, called by the thread owning the drain once it cannot be scheduled.
+     */
+    private void failPending(RejectedExecutionException e) {
+        do {
+            Runnable task;
+            while ((task = tasks.poll()) == null) {
+                if (halted) {
+                    return;
+                }
+                Thread.yield();
+            }
+            if (task instanceof Backpressure.Undroppable) {
+                task.run();
+            } else if (task instanceof CompletableFuture) {
+                ((CompletableFuture<?>) task).completeExceptionally(e);
+            } else {
+                log.error("Task is dropped, cannot schedule its dispatchId", e);
+            }
+            if (backpressure != null) {
+                backpressure.onCompleted();
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    /**
+     * @return number of queued and running tasks
+     */
+    int pendingTasks() {
+        return Math.max(0, pending.get()); // retired is -1
+    }
+
+    /**
+     * Retires the queue if it has no pending tasks.
+     * @return true if retired, the queue must be removed from the cache then
+     */
+    boolean tryRetire() {
+        return pending.compareAndSet(0, RETIRED);
+    }
+
+    /**
+     * Stops the drain after the running task, if any, and hands back the queued tasks.
+     */
+    void halt(List<Runnable> abandoned) {
+        halted = true;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (!(task instanceof DrainMarker)) {
+                abandoned.add(task);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int processed = 0;
+        do {
+            Runnable task;
+            // the counter is bumped before the task is offered, thus the task might not be visible yet
+            while ((task = tasks.poll()) == null) {
+                if (halted) {
+                    return;
+                }
+                Thread.yield();
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Error executing task", t);
+            }
+            if (backpressure != null) {
+                backpressure.onCompleted();
+            }
+            if (pending.decrementAndGet() == 0 || halted) {
+                return;
+            }
+        } while (++processed < throughput);
+
+        // Only one drain is scheduled at a time, thus FIFO holds across resubmissions
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) { // e.g. the executor is shut down
+            failPending(e);
+        }
+    }
+
+    private void schedule() {
+        if (lanes != null) {
+            lanes.execute(this, priority);
+        } else {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Completed once the tasks queued before it have been run, never dropped by {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    private static final class DrainMarker extends CompletableFuture<Void> implements Backpressure.Undroppable {
+
+        @Override
+        public void run() {
+            complete(null);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package vibneiro.dispatchers;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @ThreadSafe
 public interface Dispatcher {
@@ -19,7 +22,15 @@ public interface Dispatcher {
     void stop();
 
     /**
-     * Dispatches task asynchronously by internally generating next unique dispatchId.
+     * Stops dispatcher without blocking: no more tasks are accepted, the pending ones are drained in parallel.
+     * @param  deadline     how long to drain for, tasks still pending afterwards are reported as abandoned
+     * @return Future of the report, completed once drained or at the deadline
+     * @throws RuntimeException - if a dispatcher was stopped or stop in progress
+     */
+    CompletableFuture<ShutdownReport> stopAsync(Duration deadline);
+
+    /**
+     * Dispatches task asynchronously as if it had a unique dispatchId, i.e. it is not ordered with any other task.
      * @param  task   a task to execute
      * @return Future of this task
      * @throws RejectedExecutionException - if a dispatcher is stopped
@@ -35,4 +46,139 @@ public interface Dispatcher {
      */
     CompletableFuture<Void> dispatchAsync(String dispatchId, Runnable task);
 
+    /**
+     * Dispatches task asynchronously with a specified primitive dispatchId, neither boxed nor converted to a String.
+     * Long dispatchIds are distinct from String ones: tasks of 42L and "42" are not ordered with respect to each other.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @return Future of this task
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    CompletableFuture<Void> dispatchAsync(long dispatchId, Runnable task);
+
+    /**
+     * Dispatches task asynchronously with a specified dispatchId, without tracking its completion.
+     * Cheaper than {@link #dispatchAsync(String, Runnable)} when the future is not needed:
+     * a failure of the task is only logged.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    void dispatch(String dispatchId, Runnable task);
+
+    /**
+     * Dispatches task asynchronously with a specified primitive dispatchId, without tracking its completion.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    void dispatch(long dispatchId, Runnable task);
+
+    /**
+     * Dispatches task asynchronously with a specified dispatchId, notifying the listener once it is done instead of
+     * completing a future. The listener is called inline by the thread that ran the task, right after it.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @param  listener     gets the failure of the task, if any, which is not logged then
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    void dispatch(String dispatchId, Runnable task, MessageCompletedListener listener);
+
+    /**
+     * See {@link #dispatch(String, Runnable, MessageCompletedListener)}.
+     */
+    void dispatch(long dispatchId, Runnable task, MessageCompletedListener listener);
+
+    /**
+     * Dispatches task asynchronously with a specified dispatchId and priority. With priority lanes enabled, ready
+     * tasks of higher priorities are run first by weighted round robin, otherwise the priority is ignored.
+     * Tasks of the dispatchId still run in FIFO order: the task waits for the ones dispatched before it.
+     * @param  dispatchId   FIFO queue id
+     * @param  priority     priority class of the task
+     * @param  task         its task to execute
+     * @return Future of this task
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    CompletableFuture<Void> dispatchAsync(String dispatchId, Priority priority, Runnable task);
+
+    /**
+     * See {@link #dispatchAsync(String, Priority, Runnable)}.
+     */
+    CompletableFuture<Void> dispatchAsync(long dispatchId, Priority priority, Runnable task);
+
+    /**
+     * Same as {@link #dispatchAsync(String, Priority, Runnable)} without tracking completion of the task.
+     */
+    void dispatch(String dispatchId, Priority priority, Runnable task);
+
+    /**
+     * Same as {@link #dispatchAsync(long, Priority, Runnable)} without tracking completion of the task.
+     */
+    void dispatch(long dispatchId, Priority priority, Runnable task);
+
+    /**
+     * Dispatches tasks of many dispatchIds at once: tasks are grouped by dispatchId first and each group is
+     * enqueued as a single task, thus a batch costs an enqueue per dispatchId rather than per task.
+     * Tasks of a dispatchId run in the order of the collection, in FIFO order with the other tasks of the dispatchId;
+     * a failed task does not stop the tasks after it.
+     * @param  tasks        tasks along with their dispatchIds
+     * @return Future completed once all tasks are done, exceptionally if any of them failed or was rejected
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    CompletableFuture<Void> dispatchAllAsync(Collection<KeyedTask> tasks);
+
+    /**
+     * Dispatches task returning a result asynchronously with a specified dispatchId, in FIFO order with the other
+     * tasks of the dispatchId. The future is completed by the task itself, no other future wraps it.
+     * @param  dispatchId   FIFO queue id
+     * @param  supplier     its task to execute
+     * @return Future of the result of this task
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    <T> CompletableFuture<T> submitAsync(String dispatchId, Supplier<T> supplier);
+
+    /**
+     * See {@link #submitAsync(String, Supplier)}.
+     */
+    <T> CompletableFuture<T> submitAsync(long dispatchId, Supplier<T> supplier);
+
+    /**
+     * Dispatches task with a specified dispatchId once the delay elapses, about a millisecond later at most.
+     * The task takes its turn among the tasks of the dispatchId dispatched by then, and tasks of the dispatchId due
+     * at the same millisecond are dispatched in the order they were scheduled.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @param  delay        how long to wait before dispatching
+     * @return Future of this task, cancelling it cancels the pending dispatch; completed exceptionally
+     *         with RejectedExecutionException if the dispatcher is stopped by then
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     */
+    CompletableFuture<Void> scheduleAsync(String dispatchId, Runnable task, Duration delay);
+
+    /**
+     * See {@link #scheduleAsync(String, Runnable, Duration)}.
+     */
+    CompletableFuture<Void> scheduleAsync(long dispatchId, Runnable task, Duration delay);
+
+    /**
+     * Dispatches task with a specified dispatchId after the initial delay, then every period until cancelled.
+     * The next run is due a period after the previous one was due and is dispatched once it is done, thus runs never
+     * overlap; a run failing or rejected stops the schedule.
+     * @param  dispatchId   FIFO queue id
+     * @param  task         its task to execute
+     * @param  initialDelay how long to wait before the first run
+     * @param  period       between the runs
+     * @return Future completed exceptionally once a run fails or is rejected, cancel it to stop the schedule
+     * @throws RejectedExecutionException - if a dispatcher is stopped
+     * @throws IllegalArgumentException - if the period is not positive
+     */
+    CompletableFuture<Void> scheduleAtFixedRateAsync(String dispatchId, Runnable task, Duration initialDelay,
+                                                     Duration period);
+
+    /**
+     * See {@link #scheduleAtFixedRateAsync(String, Runnable, Duration, Duration)}.
+     */
+    CompletableFuture<Void> scheduleAtFixedRateAsync(long dispatchId, Runnable task, Duration initialDelay,
+                                                     Duration period);
+
 }
@@ -0,0 +1,89 @@
+package vibneiro.dispatchers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains mailbox queues and futures chains of a stopped dispatcher in parallel, up to a deadline.
+ * Waits on futures only, thus no thread is blocked meanwhile. Tasks still queued at the deadline are handed back.
+ */
+final class DrainingShutdown {
+
+    private final List<DispatchQueue> queues;
+    private final List<CompletableFuture<Void>> queueDrains;
+    private final List<CompletableFuture<?>> chains;
+    private final long pendingTasks;
+    private final int pendingChains;
+    private final CompletableFuture<ShutdownReport> report = new CompletableFuture<>();
+    private final AtomicBoolean completing = new AtomicBoolean();
+
+    private DrainingShutdown(Collection<DispatchQueue> queues, Collection<? extends CompletableFuture<?>> chains) {
+        this.queues = new ArrayList<>(queues);
+        this.queueDrains = new ArrayList<>(queues.size());
+        this.chains = new ArrayList<>(chains.size());
+
+        long pendingTasks = 0;
+        for (DispatchQueue queue : this.queues) {
+            pendingTasks += queue.pendingTasks(); // counted before the drain markers are enqueued
+        }
+        this.pendingTasks = pendingTasks;
+
+        for (CompletableFuture<?> chain : chains) {
+            if (!chain.isDone()) {
+                this.chains.add(chain);
+            }
+        }
+        this.pendingChains = this.chains.size();
+    }
+
+    /**
+     * @param deadline null to wait for as long as it takes
+     */
+    static CompletableFuture<ShutdownReport> drain(Collection<DispatchQueue> queues,
+                                                   Collection<? extends CompletableFuture<?>> chains,
+                                                   Duration deadline) {
+        return new DrainingShutdown(queues, chains).start(deadline);
+    }
+
+    private CompletableFuture<ShutdownReport> start(Duration deadline) {
+        for (DispatchQueue queue : queues) {
+            queueDrains.add(queue.drained());
+        }
+
+        List<CompletableFuture<?>> all = new ArrayList<>(queueDrains);
+        all.addAll(chains);
+        CompletableFuture<Void> drained = CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[all.size()]));
+
+        if (deadline != null) {
+            ScheduledFuture<?> timeout = Delayer.delay(this::complete, deadline);
+            drained.whenComplete((v, t) -> timeout.cancel(false));
+        }
+        drained.whenComplete((v, t) -> complete()); // failed chains count as drained, their failure is their futures'
+        return report;
+    }
+
+    private void complete() {
+        if (!completing.compareAndSet(false, true)) { // either at the deadline or once all drained
+            return;
+        }
+        List<Runnable> abandoned = new ArrayList<>();
+        for (int i = 0; i < queues.size(); i++) {
+            if (!queueDrains.get(i).isDone()) {
+                queues.get(i).halt(abandoned);
+            }
+        }
+        int abandonedChains = 0;
+        for (CompletableFuture<?> chain : chains) {
+            if (!chain.isDone()) {
+                abandonedChains++;
+            }
+        }
+        report.complete(new ShutdownReport(Math.max(0, pendingTasks - abandoned.size()), abandoned.size(),
+                abandoned, pendingChains - abandonedChains, abandonedChains));
+    }
+}
@@ -0,0 +1,28 @@
+package vibneiro.dispatchers;
+
+/**
+ * How a dispatcher evicts dispatchIds whose futures chain has completed from its cache.
+ * A dispatchId is never evicted while its chain is running, thus FIFO is kept across evictions.
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Futures are weakly referenced, entries with garbage-collected futures are removed on reaching the cache size.
+     * Memory is reclaimed only when the GC runs, thus the cache size is a soft limit.
+     */
+    WEAK_REFERENCES,
+
+    /**
+     * Futures are strongly referenced. On reaching the cache size, the least recently dispatched ones of a few sampled
+     * completed entries are removed, until the cache fits. Optionally, completed entries idle for longer than
+     * a TTL are removed too.
+     */
+    SAMPLED_LRU,
+
+    /**
+     * The last task of a futures chain removes the entry of its dispatchId right after it is run, unless the dispatchId
+     * has been dispatched again. The cache only holds dispatchIds with tasks in flight, no sweeps nor weak references.
+     * Unlike the other policies, a failed task does not skip the following tasks of its dispatchId.
+     */
+    ON_COMPLETION
+}
@@ -0,0 +1,121 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Arrival rate of a worker and its hottest keys, sampled into a {@link CountMinSketch}.
+ */
+@ThreadSafe
+final class KeyLoadTracker {
+
+    static final int SAMPLE_RATE = 16;
+
+    private static final int HOT_KEYS = 8;
+    private static final int SKETCH_WIDTH = 256;
+
+    private final CountMinSketch sketch = new CountMinSketch(SKETCH_WIDTH);
+    private final LongAdder sampled = new LongAdder();
+
+    @GuardedBy("this")
+    private final long[] hotKeys = new long[HOT_KEYS];
+    @GuardedBy("this")
+    private final long[] hotEstimates = new long[HOT_KEYS];
+    @GuardedBy("this")
+    private int hotCount;
+    @GuardedBy("this")
+    private long agedTotal;
+    // an estimate below it cannot make a candidate, read without the lock
+    private volatile long minHotEstimate;
+
+    void record(long key) {
+        sampled.increment();
+        long estimate = sketch.add(key);
+        if (estimate > minHotEstimate) {
+            offerHotKey(key, estimate);
+        }
+    }
+
+    private synchronized void offerHotKey(long key, long estimate) {
+        int coldest = 0;
+        for (int i = 0; i < hotCount; i++) {
+            if (hotKeys[i] == key) {
+                hotEstimates[i] = estimate;
+                updateMinHotEstimate();
+                return;
+            }
+            if (hotEstimates[i] < hotEstimates[coldest]) {
+                coldest = i;
+            }
+        }
+        if (hotCount < HOT_KEYS) {
+            coldest = hotCount++;
+        } else if (estimate <= hotEstimates[coldest]) {
+            return;
+        }
+        hotKeys[coldest] = key;
+        hotEstimates[coldest] = estimate;
+        updateMinHotEstimate();
+    }
+
+    @GuardedBy("this")
+    private void updateMinHotEstimate() {
+        if (hotCount < HOT_KEYS) {
+            return; // 0, any key makes a candidate
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < hotCount; i++) {
+            min = Math.min(min, hotEstimates[i]);
+        }
+        minHotEstimate = min;
+    }
+
+    /**
+     * Ends the period: takes the arrivals and hot keys, then ages the counters.
+     */
+    synchronized Period endPeriod() {
+        long periodSampled = sampled.sumThenReset();
+        agedTotal += periodSampled;
+
+        // candidate estimates are refreshed, as they might have been taken before the last decay
+        for (int i = 0; i < hotCount; i++) {
+            hotEstimates[i] = sketch.estimate(hotKeys[i]);
+        }
+        Integer[] order = new Integer[hotCount];
+        for (int i = 0; i < hotCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hotEstimates[b], hotEstimates[a]));
+
+        long[] keys = new long[hotCount];
+        double[] shares = new double[hotCount];
+        for (int i = 0; i < hotCount; i++) {
+            keys[i] = hotKeys[order[i]];
+            shares[i] = agedTotal == 0 ? 0 : Math.min(1.0, (double) hotEstimates[order[i]] / agedTotal);
+        }
+
+        sketch.decay();
+        agedTotal >>>= 1;
+        for (int i = 0; i < hotCount; i++) {
+            hotEstimates[i] >>>= 1;
+        }
+        updateMinHotEstimate();
+        return new Period(periodSampled * SAMPLE_RATE, keys, shares);
+    }
+
+    static final class Period {
+
+        final long arrivals;
+        // hottest first
+        final long[] hotKeys;
+        final double[] shares;
+
+        Period(long arrivals, long[] hotKeys, double[] shares) {
+            this.arrivals = arrivals;
+            this.hotKeys = hotKeys;
+            this.shares = shares;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package vibneiro.dispatchers;
+
+import java.util.Objects;
+
+/**
+ * A task along with its dispatchId, an entry of {@link Dispatcher#dispatchAllAsync(java.util.Collection)}.
+ * Long dispatchIds are distinct from String ones, as in {@link Dispatcher#dispatchAsync(long, Runnable)}.
+ */
+public final class KeyedTask {
+
+    private final String dispatchId; // null for a long dispatchId
+    private final long longDispatchId;
+    private final Runnable task;
+
+    public KeyedTask(String dispatchId, Runnable task) {
+        this.dispatchId = Objects.requireNonNull(dispatchId, "dispatchId");
+        this.longDispatchId = 0;
+        this.task = Objects.requireNonNull(task, "task");
+    }
+
+    public KeyedTask(long dispatchId, Runnable task) {
+        this.dispatchId = null;
+        this.longDispatchId = dispatchId;
+        this.task = Objects.requireNonNull(task, "task");
+    }
+
+    /**
+     * @return the String dispatchId, null if the dispatchId is a long
+     */
+    public String getDispatchId() {
+        return dispatchId;
+    }
+
+    /**
+     * @return the long dispatchId, meaningless unless {@link #hasLongDispatchId()}
+     */
+    public long getLongDispatchId() {
+        return longDispatchId;
+    }
+
+    public boolean hasLongDispatchId() {
+        return dispatchId == null;
+    }
+
+    public Runnable getTask() {
+        return task;
+    }
+}
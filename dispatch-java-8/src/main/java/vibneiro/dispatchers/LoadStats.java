@@ -0,0 +1,86 @@
+package vibneiro.dispatchers;
+
+import java.util.Arrays;
+
+/**
+ * Load of {@link ThreadBoundHashDispatcher} workers over the last tracking period, indexed by worker.
+ */
+public final class LoadStats {
+
+    static final LoadStats EMPTY = new LoadStats(new int[0], new long[0], 0, 0);
+
+    private final int[] queueDepths;
+    private final long[] arrivalRates;
+    private final int overriddenKeys;
+    private final long movedKeys;
+
+    LoadStats(int[] queueDepths, long[] arrivalRates, int overriddenKeys, long movedKeys) {
+        this.queueDepths = queueDepths;
+        this.arrivalRates = arrivalRates;
+        this.overriddenKeys = overriddenKeys;
+        this.movedKeys = movedKeys;
+    }
+
+    /**
+     * @return number of queued tasks per worker at the end of the period
+     */
+    public int[] getQueueDepths() {
+        return queueDepths.clone();
+    }
+
+    /**
+     * @return dispatched tasks per second per worker
+     */
+    public long[] getArrivalRates() {
+        return arrivalRates.clone();
+    }
+
+    /**
+     * @return the highest arrival rate divided by the mean one: 1.0 if balanced, the workers count at most
+     */
+    public double getImbalance() {
+        long max = 0;
+        long sum = 0;
+        for (long rate : arrivalRates) {
+            max = Math.max(max, rate);
+            sum += rate;
+        }
+        return sum == 0 ? 1.0 : (double) max * arrivalRates.length / sum;
+    }
+
+    /**
+     * @return the highest queue depth divided by the mean one: 1.0 if balanced, the workers count at most
+     */
+    public double getQueueImbalance() {
+        long max = 0;
+        long sum = 0;
+        for (int depth : queueDepths) {
+            max = Math.max(max, depth);
+            sum += depth;
+        }
+        return sum == 0 ? 1.0 : (double) max * queueDepths.length / sum;
+    }
+
+    /**
+     * @return number of dispatchIds routed off their hashed worker by rebalancing
+     */
+    public int getOverriddenKeys() {
+        return overriddenKeys;
+    }
+
+    /**
+     * @return number of dispatchIds moved by rebalancing since start
+     */
+    public long getMovedKeys() {
+        return movedKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadStats{queueDepths=" + Arrays.toString(queueDepths)
+                + ", arrivalRates=" + Arrays.toString(arrivalRates)
+                + ", imbalance=" + getImbalance()
+                + ", overriddenKeys=" + overriddenKeys
+                + ", movedKeys=" + movedKeys + '}';
+    }
+}
@@ -0,0 +1,286 @@
+package vibneiro.dispatchers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link DispatchQueue}s of primitive long dispatchIds, in striped open-addressing tables.
+ */
+@ThreadSafe
+final class LongDispatchQueueMap {
+
+    private static final Logger log = LoggerFactory.getLogger(LongDispatchQueueMap.class);
+
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final LongAdder size = new LongAdder();
+    private final AtomicBoolean pruneScheduled = new AtomicBoolean();
+
+    private final Executor executor;
+    private final int throughput;
+    private final Backpressure backpressure; // null if unbounded
+    private final int maxSize;
+
+    /**
+     * @param concurrencyLevel expected number of concurrently dispatching threads, sizes the lock striping
+     * @param maxSize          number of queues above which idle ones are retired
+     */
+    LongDispatchQueueMap(int concurrencyLevel, Executor executor, int throughput, Backpressure backpressure, int maxSize) {
+        int stripesCount = Integer.highestOneBit(Math.max(concurrencyLevel, 1) * 4 - 1) << 1;
+        this.stripes = new Stripe[stripesCount];
+        for (int i = 0; i < stripesCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeShift = Long.SIZE - Integer.numberOfTrailingZeros(stripesCount);
+        this.executor = executor;
+        this.throughput = throughput;
+        this.backpressure = backpressure;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Enqueues the task into the queue of the dispatchId, the queue is created if absent.
+     * @throws java.util.concurrent.RejectedExecutionException - if the task does not fit and the policy rejects it
+     */
+    void enqueue(long dispatchId, Runnable task) {
+        enqueue(dispatchId, Priority.NORMAL, task);
+    }
+
+    /**
+     * Same as {@link #enqueue(long, Runnable)}, see {@link DispatchQueue#enqueue(Runnable, Priority)}.
+     */
+    void enqueue(long dispatchId, Priority priority, Runnable task) {
+        long hash = mix(dispatchId);
+        Stripe stripe = stripes[(int) (hash >>> stripeShift)];
+        int slotHash = (int) hash;
+        try {
+            while (true) {
+                DispatchQueue queue = stripe.get(dispatchId, slotHash); // lock-free on a hit
+                if (queue == null) {
+                    queue = stripe.getOrCreate(dispatchId, slotHash);
+                }
+                if (queue.enqueue(task, priority)) {
+                    return;
+                }
+                // The queue has been retired by eviction in the meantime
+                stripe.remove(dispatchId, slotHash, queue);
+            }
+        } finally {
+            tryToPrune();
+        }
+    }
+
+    int size() {
+        return size.intValue();
+    }
+
+    /**
+     * @return a snapshot of all queues
+     */
+    List<DispatchQueue> queues() {
+        List<DispatchQueue> queues = new ArrayList<>(size());
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                for (DispatchQueue queue : stripe.queues) {
+                    if (queue != null) {
+                        queues.add(queue);
+                    }
+                }
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return queues;
+    }
+
+    private void tryToPrune() {
+        if (size.sum() > maxSize && pruneScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::retireIdleQueues);
+            }
+            catch(Throwable t) {
+                pruneScheduled.set(false);
+                log.warn("Exception thrown when submitting retireIdleQueues:task", t);
+            }
+        }
+    }
+
+    private void retireIdleQueues() {
+        try {
+            int retired = 0;
+            for (Stripe stripe : stripes) {
+                if (size.sum() <= maxSize) {
+                    break;
+                }
+                retired += stripe.retireIdleQueues();
+            }
+            log.debug("[Cache eviction] Removed {} long dispatchIds from the cache", retired);
+        } finally {
+            pruneScheduled.set(false);
+        }
+    }
+
+    // murmur3 finalizer: account numbers and other sequential ids are spread over all bits
+    private static long mix(long key) {
+        key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private final class Stripe {
+
+        private final StampedLock lock = new StampedLock();
+
+        @GuardedBy("lock")
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        @GuardedBy("lock")
+        private DispatchQueue[] queues = new DispatchQueue[INITIAL_STRIPE_CAPACITY]; // null for a free slot
+        @GuardedBy("lock")
+        private int count;
+
+        DispatchQueue get(long key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            DispatchQueue queue = find(key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    queue = find(key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return queue;
+        }
+
+        // Might see a torn table under an optimistic read, the caller validates the stamp then
+        private DispatchQueue find(long key, int hash) {
+            long[] keys = this.keys;
+            DispatchQueue[] queues = this.queues;
+            if (keys.length != queues.length) { // resized in the meantime
+                return null;
+            }
+            int mask = keys.length - 1;
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                DispatchQueue queue = queues[i];
+                if (queue == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return queue;
+                }
+            }
+            return null;
+        }
+
+        DispatchQueue getOrCreate(long key, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                int i = hash & mask;
+                for (DispatchQueue queue; (queue = queues[i]) != null; i = (i + 1) & mask) {
+                    if (keys[i] == key) {
+                        return queue;
+                    }
+                }
+                DispatchQueue queue = new DispatchQueue(executor, throughput, backpressure);
+                keys[i] = key;
+                queues[i] = queue;
+                size.increment();
+                if (++count > keys.length >>> 1) {
+                    resize();
+                }
+                return queue;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void remove(long key, int hash, DispatchQueue expected) {
+            long stamp = lock.writeLock();
+            try {
+                int mask = keys.length - 1;
+                for (int i = hash & mask; queues[i] != null; i = (i + 1) & mask) {
+                    if (keys[i] == key) {
+                        if (queues[i] == expected) {
+                            delete(i);
+                        }
+                        return;
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int retireIdleQueues() {
+            int retired = 0;
+            long stamp = lock.writeLock();
+            try {
+                for (int i = 0; i < queues.length; ) {
+                    DispatchQueue queue = queues[i];
+                    if (queue != null && queue.tryRetire()) {
+                        delete(i); // another entry might be shifted into the slot, thus it is checked again
+                        retired++;
+                    } else {
+                        i++;
+                    }
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return retired;
+        }
+
+        // Backward shift deletion keeps probe sequences intact without tombstones
+        @GuardedBy("lock")
+        private void delete(int i) {
+            int mask = keys.length - 1;
+            for (int j = (i + 1) & mask; queues[j] != null; j = (j + 1) & mask) {
+                int home = (int) mix(keys[j]) & mask;
+                boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    keys[i] = keys[j];
+                    queues[i] = queues[j];
+                    i = j;
+                }
+            }
+            queues[i] = null;
+            count--;
+            size.decrement();
+        }
+
+        @GuardedBy("lock")
+        private void resize() {
+            long[] oldKeys = keys;
+            DispatchQueue[] oldQueues = queues;
+            int capacity = oldKeys.length << 1;
+            int mask = capacity - 1;
+            long[] newKeys = new long[capacity];
+            DispatchQueue[] newQueues = new DispatchQueue[capacity];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldQueues[j] != null) {
+                    int i = (int) mix(oldKeys[j]) & mask;
+                    while (newQueues[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newKeys[i] = oldKeys[j];
+                    newQueues[i] = oldQueues[j];
+                }
+            }
+            keys = newKeys;
+            queues = newQueues;
+        }
+    }
+}
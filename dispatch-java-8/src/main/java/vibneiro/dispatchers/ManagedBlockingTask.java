@@ -0,0 +1,47 @@
+package vibneiro.dispatchers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a blocking task inside {@link ForkJoinPool#managedBlock}: if run by a ForkJoinPool worker, the pool activates
+ * a spare thread or creates a compensation thread for the time the task blocks. Runs the task as is elsewhere.
+ */
+final class ManagedBlockingTask implements Runnable, ForkJoinPool.ManagedBlocker {
+
+    private final Runnable task;
+    private final BlockingStats stats;
+    private boolean done; // accessed by the running thread only
+
+    ManagedBlockingTask(Runnable task, BlockingStats stats) {
+        this.task = task;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ForkJoinPool.managedBlock(this);
+        } catch (InterruptedException e) { // not thrown by block()
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean block() {
+        // the pool has compensated the blocked worker by now, if at all
+        stats.onBlocked(ForkJoinTask.getPool());
+        try {
+            task.run();
+        } finally {
+            done = true;
+            stats.onUnblocked();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+        return done;
+    }
+}
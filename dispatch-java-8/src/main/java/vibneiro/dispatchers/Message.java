@@ -1,26 +1,75 @@
 package vibneiro.dispatchers;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Created by SBT-Voroshilin-IB on 04.06.2015.
+ *
+ * A message to an {@link Actor}. The msgType lets the actor switch over the kinds of messages it handles,
+ * payloads are carried by subclasses.
  */
 public class Message {
 
-    private Set<MessageCompletedListener> listeners;
-    private int msgType;
+    // created on the first listener, thus a message without listeners costs nothing to notify
+    private volatile Set<MessageCompletedListener> listeners;
+    private final int msgType;
+    private final Actor sender;
 
+    /**
+     * @param sender actor sending the message, null if sent from outside of actors
+     */
     public Message(int msgType, Actor sender) {
         this.msgType = msgType;
+        this.sender = sender;
     }
 
+    public int getMsgType() {
+        return msgType;
+    }
+
+    /**
+     * @return actor that sent the message, null if sent from outside of actors
+     */
+    public Actor getSender() {
+        return sender;
+    }
+
+    /**
+     * @param listener called by the thread of the actor once it has handled the message, see
+     *                 {@link MessageCompletedListener}; called on each dispatch of the message
+     */
     public boolean addListener(MessageCompletedListener listener) {
+        Objects.requireNonNull(listener, "listener");
+        Set<MessageCompletedListener> listeners = this.listeners;
+        if (listeners == null) {
+            synchronized (this) {
+                listeners = this.listeners;
+                if (listeners == null) {
+                    this.listeners = listeners = new CopyOnWriteArraySet<>();
+                }
+            }
+        }
         return listeners.add(listener);
     }
 
     public boolean removeListener(MessageCompletedListener listener) {
-        return this.listeners.remove(listener);
+        Set<MessageCompletedListener> listeners = this.listeners;
+        return listeners != null && listeners.remove(listener);
+    }
+
+    /**
+     * Called by the actor once it has handled the message.
+     */
+    void notifyCompleted(Throwable failure) {
+        Set<MessageCompletedListener> listeners = this.listeners;
+        if (listeners != null) {
+            for (MessageCompletedListener listener : listeners) {
+                ListenedTask.notify(listener, failure);
+            }
+        }
     }
 
 }
@@ -2,6 +2,17 @@ package vibneiro.dispatchers;
 
 /**
  * Created by SBT-Voroshilin-IB on 04.06.2015.
+ *
+ * Notifies when a message has been handled by its actor, or when a task dispatched with
+ * {@link Dispatcher#dispatch(String, Runnable, MessageCompletedListener)} has been run.
+ * Called inline by the thread that handled the message or ran the task, right after it, thus a listener must be quick
+ * and must not block. A message or a task might be its own listener, then nothing is allocated for the notification.
  */
-public class MessageCompletedListener {
+@FunctionalInterface
+public interface MessageCompletedListener {
+
+    /**
+     * @param failure thrown by the task or the actor, null if completed normally
+     */
+    void onCompleted(Throwable failure);
 }
@@ -0,0 +1,30 @@
+package vibneiro.dispatchers;
+
+/**
+ * What a dispatcher does with a task once the pending tasks limit is reached.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The producer waits until there is room for the task.
+     * Beware of dispatching from within tasks running on the same executor.
+     */
+    BLOCK,
+
+    /**
+     * RejectedExecutionException is thrown to the producer.
+     */
+    REJECT,
+
+    /**
+     * The oldest queued task is cancelled and the new one takes its place.
+     * The producer waits if there is nothing to drop yet.
+     */
+    DROP_OLDEST,
+
+    /**
+     * A task without a dispatchId is run by the producer thread, bypassing the queue.
+     * The producer of a task with a dispatchId waits instead, as with {@link #BLOCK}, to keep FIFO per dispatchId.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,60 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of tasks that hit the pending tasks limit of a dispatcher, one per {@link OverflowPolicy}.
+ */
+@ThreadSafe
+public final class OverflowStats {
+
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    OverflowStats() {
+    }
+
+    void recordBlocked() {
+        blocked.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordCallerRuns() {
+        callerRuns.increment();
+    }
+
+    /**
+     * @return number of times a producer had to wait for room
+     */
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "OverflowStats{blocked=" + blocked + ", rejected=" + rejected + ", dropped=" + dropped
+                + ", callerRuns=" + callerRuns + '}';
+    }
+}
@@ -0,0 +1,18 @@
+package vibneiro.dispatchers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AtomicLong padded up to a cache line, so that counters updated by different threads do not false-share.
+ */
+@SuppressWarnings("unused")
+final class PaddedAtomicLong extends AtomicLong {
+
+    private static final long serialVersionUID = 1L;
+
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    PaddedAtomicLong(long initialValue) {
+        super(initialValue);
+    }
+}
@@ -0,0 +1,23 @@
+package vibneiro.dispatchers;
+
+/**
+ * Priority class of a task, see {@link Dispatcher#dispatchAsync(String, Priority, Runnable)}.
+ * Tasks of the same dispatchId run in FIFO order whatever their priorities are.
+ */
+public enum Priority {
+
+    /**
+     * Latency-sensitive tasks.
+     */
+    HIGH,
+
+    /**
+     * Tasks dispatched without a priority.
+     */
+    NORMAL,
+
+    /**
+     * Throughput-oriented tasks, e.g. batch reconciliation.
+     */
+    BULK
+}
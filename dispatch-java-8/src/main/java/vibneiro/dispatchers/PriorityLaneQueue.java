@@ -0,0 +1,259 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Worker queue of a {@link ThreadBoundHashDispatcher} with a lane per {@link Priority}, polled by weighted round robin.
+ * A dispatchId keeps its lane while it has pending tasks. Polled by the worker only, see {@link #drainTo(Collection)}.
+ */
+@ThreadSafe
+final class PriorityLaneQueue extends AbstractQueue<Runnable> {
+
+    private static final int LANES = Priority.values().length;
+
+    /**
+     * Task run after all tasks queued before it.
+     */
+    interface Fence extends Runnable {
+    }
+
+    private final Queue<Runnable>[] lanes;
+    private final int[] schedule;
+    // lanes of the dispatchIds having pending tasks
+    private final ConcurrentMap<Long, KeyLane> keyLanes = new ConcurrentHashMap<>();
+    // fences go into all lanes in the same order
+    private final Object fenceLock = new Object();
+
+    // accessed by the worker thread only
+    private int tick;
+    private final boolean[] fenced = new boolean[LANES];
+    private int fencedLanes;
+
+    /**
+     * @param ringBufferCapacity capacity of a ring buffer per lane, 0 for unbounded linked queues
+     * @param weights            of HIGH, NORMAL and BULK lanes
+     */
+    @SuppressWarnings("unchecked")
+    PriorityLaneQueue(int ringBufferCapacity, int[] weights) {
+        this.schedule = PriorityLanes.schedule(weights);
+        this.lanes = new Queue[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = ringBufferCapacity > 0
+                    ? new RingBufferQueue<>(ringBufferCapacity)
+                    : new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @return the task bound to the dispatchId and the priority, to be offered to this queue
+     */
+    static Runnable keyed(long key, Priority priority, Runnable task) {
+        return new LaneTask(key, priority, task);
+    }
+
+    /**
+     * @return false if the lane is full
+     */
+    @Override
+    public boolean offer(Runnable task) {
+        if (task instanceof Fence) {
+            synchronized (fenceLock) {
+                for (Queue<Runnable> lane : lanes) {
+                    while (!lane.offer(task)) { // the worker polls the lanes it has not fenced yet
+                        Thread.yield();
+                    }
+                }
+            }
+            return true;
+        }
+        if (!(task instanceof LaneTask)) {
+            return lanes[Priority.NORMAL.ordinal()].offer(task);
+        }
+
+        LaneTask keyed = (LaneTask) task;
+        KeyLane keyLane = keyLanes.compute(keyed.key,
+                (key, pending) -> pending != null ? pending.add() : new KeyLane(keyed.priority));
+        if (!lanes[keyLane.lane].offer(keyed)) {
+            release(keyed.key);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Runnable poll() {
+        while (true) {
+            int preferred = schedule[tick];
+            tick = tick + 1 == schedule.length ? 0 : tick + 1;
+
+            Runnable task = null;
+            int lane = -1;
+            // the preferred lane first, then from HIGH to BULK
+            for (int i = -1; task == null && i < LANES; i++) {
+                lane = i < 0 ? preferred : i;
+                if (!fenced[lane]) {
+                    task = lanes[lane].poll();
+                }
+            }
+
+            if (task instanceof Fence) {
+                fenced[lane] = true;
+                if (++fencedLanes < LANES) {
+                    continue;
+                }
+                Arrays.fill(fenced, false);
+                fencedLanes = 0;
+                return task;
+            }
+            if (task instanceof LaneTask) {
+                LaneTask keyed = (LaneTask) task;
+                release(keyed.key);
+                return keyed.task;
+            }
+            if (task != null || fencedLanes == 0) {
+                return task;
+            }
+            // the fence is being put into the other lanes
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return the task the next poll() returns, unless tasks are offered meanwhile
+     */
+    @Override
+    public Runnable peek() {
+        boolean[] fenced = this.fenced.clone();
+        int fencedLanes = this.fencedLanes;
+        int tick = this.tick;
+        while (true) {
+            int preferred = schedule[tick];
+            tick = tick + 1 == schedule.length ? 0 : tick + 1;
+
+            Runnable task = null;
+            int lane = -1;
+            for (int i = -1; task == null && i < LANES; i++) {
+                lane = i < 0 ? preferred : i;
+                if (!fenced[lane]) {
+                    task = lanes[lane].peek();
+                }
+            }
+
+            if (task instanceof Fence) {
+                // the head of a fenced lane is the fence, thus the lane is skipped from now on
+                fenced[lane] = true;
+                if (++fencedLanes < LANES) {
+                    continue;
+                }
+                return task;
+            }
+            return task instanceof LaneTask ? ((LaneTask) task).task : task;
+        }
+    }
+
+    /**
+     * Moves the queued tasks but fences to the collection. Unlike poll(), safe to call while the worker polls.
+     */
+    void drainTo(Collection<? super Runnable> tasks) {
+        for (Queue<Runnable> lane : lanes) {
+            for (Runnable task; (task = lane.poll()) != null; ) {
+                if (task instanceof LaneTask) {
+                    tasks.add(((LaneTask) task).task);
+                } else if (!(task instanceof Fence)) {
+                    tasks.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of queued tasks, a fence counts once per lane
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Queue<Runnable> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Queue<Runnable> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Weakly consistent, lane after lane from HIGH to BULK, a fence once. Removal is not supported.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        Set<Runnable> fences = Collections.newSetFromMap(new IdentityHashMap<>());
+        return Arrays.stream(lanes)
+                .flatMap(Queue::stream)
+                .filter(task -> !(task instanceof Fence) || fences.add(task))
+                .map(task -> task instanceof LaneTask ? ((LaneTask) task).task : task)
+                .iterator();
+    }
+
+    private void release(long key) {
+        keyLanes.computeIfPresent(key, (k, keyLane) -> keyLane.remove() ? null : keyLane);
+    }
+
+    /**
+     * Lane of a dispatchId and the number of its pending tasks, updated within its map entry.
+     */
+    private static final class KeyLane {
+
+        private final int lane;
+        private int pending = 1;
+
+        KeyLane(Priority priority) {
+            this.lane = priority.ordinal();
+        }
+
+        KeyLane add() {
+            pending++;
+            return this;
+        }
+
+        // true once no task is pending
+        boolean remove() {
+            return --pending == 0;
+        }
+    }
+
+    private static final class LaneTask implements Runnable {
+
+        private final long key;
+        private final Priority priority;
+        private final Runnable task;
+
+        LaneTask(long key, Priority priority, Runnable task) {
+            this.key = key;
+            this.priority = priority;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor with a lane per {@link Priority} in front of a shared executor, picked by weighted round robin.
+ */
+@ThreadSafe
+final class PriorityLanes implements Executor {
+
+    static final int[] DEFAULT_WEIGHTS = {8, 4, 1};
+
+    private static final int LANES = Priority.values().length;
+
+    private final Executor executor;
+    private final Queue<Runnable>[] lanes;
+    private final Executor[] laneExecutors;
+    private final int[] schedule;
+    private final AtomicInteger tick = new AtomicInteger();
+    private final Runnable pump = this::runNext;
+
+    @SuppressWarnings("unchecked")
+    PriorityLanes(Executor executor, int[] weights) {
+        this.executor = executor;
+        this.schedule = schedule(weights);
+        this.lanes = new Queue[LANES];
+        this.laneExecutors = new Executor[LANES];
+        for (Priority priority : Priority.values()) {
+            lanes[priority.ordinal()] = new ConcurrentLinkedQueue<>();
+            laneExecutors[priority.ordinal()] = task -> execute(task, priority);
+        }
+    }
+
+    /**
+     * @return weights of HIGH, NORMAL and BULK lanes
+     * @throws IllegalArgumentException - if a weight is not positive
+     */
+    static int[] weights(int high, int normal, int bulk) {
+        int[] weights = {high, normal, bulk};
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("weights must be positive: " + high + ":" + normal + ":" + bulk);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Smooth weighted round robin: lanes are interleaved rather than served in runs, e.g. 8:4:1 gives
+     * H N H H N H B H N H H N H. The length of the schedule is the sum of the weights.
+     */
+    static int[] schedule(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int[] schedule = new int[total];
+        int[] current = new int[weights.length];
+        for (int t = 0; t < total; t++) {
+            int next = 0;
+            for (int i = 0; i < weights.length; i++) {
+                current[i] += weights[i];
+                if (current[i] > current[next]) {
+                    next = i;
+                }
+            }
+            current[next] -= total;
+            schedule[t] = next;
+        }
+        return schedule;
+    }
+
+    /**
+     * @return executor putting tasks into the lane of the priority
+     */
+    Executor lane(Priority priority) {
+        return laneExecutors[priority.ordinal()];
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, Priority.NORMAL);
+    }
+
+    void execute(Runnable task, Priority priority) {
+        Queue<Runnable> lane = lanes[priority.ordinal()];
+        lane.offer(task);
+        try {
+            executor.execute(pump);
+        } catch (RejectedExecutionException e) {
+            lane.remove(task); // no pump would ever take it
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        Runnable task = poll();
+        // there are at least as many lane tasks as pumps, thus a task is found unless one was rejected
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    private Runnable poll() {
+        int preferred = schedule[(tick.getAndIncrement() & Integer.MAX_VALUE) % schedule.length];
+        Runnable task = lanes[preferred].poll();
+        for (int i = 0; task == null && i < LANES; i++) {
+            task = lanes[i].poll();
+        }
+        return task;
+    }
+}
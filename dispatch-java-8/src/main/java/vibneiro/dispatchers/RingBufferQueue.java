@@ -0,0 +1,160 @@
+package vibneiro.dispatchers;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer queue (D. Vyukov), for many producers and many consumers: besides the worker,
+ * producers poll it on {@link OverflowPolicy#DROP_OLDEST} and a stopping dispatcher drains it.
+ */
+@ThreadSafe
+final class RingBufferQueue<E> extends AbstractQueue<E> {
+
+    private final int mask;
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+    private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+
+    /**
+     * @param capacity rounded up to the next power of 2
+     */
+    RingBufferQueue(int capacity) {
+        int size = capacityFor(capacity);
+        mask = size - 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return the requested capacity rounded up to the next power of 2
+     */
+    static int capacityFor(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^30]: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        return size < capacity ? size << 1 : size;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements[index] = e;
+                    sequences.lazySet(index, pos + 1); // publish
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false; // the slot has not been consumed for a lap
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) elements[index];
+                    elements[index] = null;
+                    sequences.lazySet(index, pos + mask + 1); // free for the next lap
+                    return e;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null; // not published yet
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long pos = head.get();
+        int index = (int) pos & mask;
+        return sequences.get(index) == pos + 1 ? (E) elements[index] : null;
+    }
+
+    /**
+     * @return number of claimed slots, including the ones being published
+     */
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Weakly consistent: returns the elements published between head and tail as of the call and not polled
+     * by the time they are reached. Removal is not supported.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final long end = tail.get();
+        return new Iterator<E>() {
+            private long pos = head.get();
+            private E next = advance();
+
+            @SuppressWarnings("unchecked")
+            private E advance() {
+                for (; pos < end; pos++) {
+                    int index = (int) pos & mask;
+                    if (sequences.get(index) == pos + 1) {
+                        E e = (E) elements[index];
+                        if (e != null && sequences.get(index) == pos + 1) { // not polled meanwhile
+                            pos++;
+                            return e;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package vibneiro.dispatchers;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A task dispatched once a delay elapses, then every period if any, being its own future.
+ * A due task is let in regardless of the pending tasks limits, thus the timer thread never waits for room.
+ */
+final class ScheduledTask extends CompletableFuture<Void> implements Backpressure.Exempt {
+
+    private final Consumer<Runnable> dispatcher;
+    private final Runnable task;
+    private final long periodNanos; // 0 for a single run
+    private final Runnable fire = this::fire;
+    private long deadlineNanos; // written by the run in progress only
+    private volatile TimerWheel.Timeout timeout;
+
+    private ScheduledTask(Consumer<Runnable> dispatcher, Runnable task, long periodNanos) {
+        this.dispatcher = dispatcher;
+        this.task = Objects.requireNonNull(task, "task");
+        this.periodNanos = periodNanos;
+    }
+
+    /**
+     * @param dispatcher dispatches the task to its dispatchId
+     */
+    static ScheduledTask once(Consumer<Runnable> dispatcher, Runnable task, Duration delay) {
+        ScheduledTask scheduled = new ScheduledTask(dispatcher, task, 0);
+        scheduled.arm(System.nanoTime() + delay.toNanos());
+        return scheduled;
+    }
+
+    /**
+     * @throws IllegalArgumentException - if the period is not positive
+     */
+    static ScheduledTask atFixedRate(Consumer<Runnable> dispatcher, Runnable task, Duration initialDelay,
+                                     Duration period) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        ScheduledTask scheduled = new ScheduledTask(dispatcher, task, period.toNanos());
+        scheduled.arm(System.nanoTime() + initialDelay.toNanos());
+        return scheduled;
+    }
+
+    private void arm(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        timeout = TimerWheel.shared().schedule(fire, deadlineNanos - System.nanoTime());
+        if (isDone()) { // cancelled meanwhile, the cancel may have missed the new timeout
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Run by the timer thread, must not block: the task is exempt from the overflow policy.
+     */
+    private void fire() {
+        if (isDone()) {
+            return;
+        }
+        try {
+            dispatcher.accept(this);
+        } catch (Throwable t) { // stopped dispatcher or overflow
+            completeExceptionally(t);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isDone()) { // cancelled while queued
+            return;
+        }
+        try {
+            task.run();
+        } catch (Throwable t) {
+            completeExceptionally(t);
+            return;
+        }
+        if (periodNanos == 0) {
+            complete(null);
+        } else {
+            arm(deadlineNanos + periodNanos);
+        }
+    }
+
+    /**
+     * Same as {@link CompletableFuture#cancel} without filling in a stack trace, timeouts being cancelled far more
+     * often than they expire.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = completeExceptionally(new Cancelled());
+        if (cancelled) {
+            timeout.cancel();
+        }
+        return cancelled || isCancelled();
+    }
+
+    private static final class Cancelled extends CancellationException {
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
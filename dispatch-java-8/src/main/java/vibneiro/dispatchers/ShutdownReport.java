@@ -0,0 +1,76 @@
+package vibneiro.dispatchers;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link Dispatcher#stopAsync(java.time.Duration)}.
+ */
+public final class ShutdownReport {
+
+    private final long drainedTasks;
+    private final List<Runnable> abandonedTasks;
+    private final long abandonedTasksCount;
+    private final int drainedChains;
+    private final int abandonedChains;
+
+    ShutdownReport(long drainedTasks, long abandonedTasksCount, List<Runnable> abandonedTasks,
+                   int drainedChains, int abandonedChains) {
+        this.drainedTasks = drainedTasks;
+        this.abandonedTasksCount = abandonedTasksCount;
+        this.abandonedTasks = Collections.unmodifiableList(abandonedTasks);
+        this.drainedChains = drainedChains;
+        this.abandonedChains = abandonedChains;
+    }
+
+    /**
+     * @return true if everything pending at the time of stop has been run before the deadline
+     */
+    public boolean isDrained() {
+        return abandonedTasksCount == 0 && abandonedChains == 0;
+    }
+
+    /**
+     * @return number of tasks pending at the time of stop and run before the deadline
+     */
+    public long getDrainedTasks() {
+        return drainedTasks;
+    }
+
+    /**
+     * @return number of tasks still pending at the deadline
+     */
+    public long getAbandonedTasksCount() {
+        return abandonedTasksCount;
+    }
+
+    /**
+     * Tasks that will never be run by the dispatcher, handed back to be run elsewhere or cancelled.
+     * Tasks of futures chains are not handed back, see {@link #getAbandonedChains()}.
+     */
+    public List<Runnable> getAbandonedTasks() {
+        return abandonedTasks;
+    }
+
+    /**
+     * @return number of futures chains running at the time of stop and completed before the deadline
+     */
+    public int getDrainedChains() {
+        return drainedChains;
+    }
+
+    /**
+     * @return number of futures chains still running at the deadline
+     */
+    public int getAbandonedChains() {
+        return abandonedChains;
+    }
+
+    @Override
+    public String toString() {
+        return "ShutdownReport{drainedTasks=" + drainedTasks +
+                ", abandonedTasks=" + abandonedTasksCount +
+                ", drainedChains=" + drainedChains +
+                ", abandonedChains=" + abandonedChains + '}';
+    }
+}
@@ -0,0 +1,27 @@
+package vibneiro.dispatchers;
+
+/**
+ * Busy-spins for a number of polls, then yields the core between polls.
+ * Catches bursts at spinning latency without monopolizing the core when the worker stays idle.
+ */
+public class SpinThenYieldWaitStrategy implements WaitStrategy {
+
+    private static final int DEFAULT_SPIN_TRIES = 100;
+
+    private final int spinTries;
+
+    public SpinThenYieldWaitStrategy() {
+        this(DEFAULT_SPIN_TRIES);
+    }
+
+    public SpinThenYieldWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    public void idle(int idleCount, Parker parker) {
+        if (idleCount > spinTries) {
+            Thread.yield();
+        }
+    }
+}
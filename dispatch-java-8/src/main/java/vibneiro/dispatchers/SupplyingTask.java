@@ -0,0 +1,28 @@
+package vibneiro.dispatchers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Same as {@link CompletableTask} for a task returning a result: the future of the result is the task itself.
+ */
+final class SupplyingTask<T> extends CompletableFuture<T> implements Runnable {
+
+    private final Supplier<T> supplier;
+
+    SupplyingTask(Supplier<T> supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public void run() {
+        if (isDone()) { // cancelled while queued
+            return;
+        }
+        try {
+            complete(supplier.get());
+        } catch (Throwable t) {
+            completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package vibneiro.dispatchers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Linux CPU affinity by taskset(1), the thread id is resolved by /proc/thread-self.
+ */
+final class TasksetCpuAffinity implements CpuAffinity {
+
+    static final TasksetCpuAffinity INSTANCE = new TasksetCpuAffinity();
+
+    private TasksetCpuAffinity() {
+    }
+
+    @Override
+    public void pinCurrentThread(int[] cpus) {
+        String cpuList = toCpuList(cpus);
+        try {
+            String tid = new File("/proc/thread-self").getCanonicalFile().getName();
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", cpuList, tid)
+                    .redirectErrorStream(true)
+                    .start();
+            String output = readFully(taskset.getInputStream());
+            if (taskset.waitFor() != 0) {
+                throw new IllegalStateException("taskset failed to pin thread " + tid + " to cpus " + cpuList + ": "
+                        + output.trim());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot pin to cpus " + cpuList, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while pinning to cpus " + cpuList, e);
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    static String toCpuList(int[] cpus) {
+        if (cpus.length == 0) {
+            throw new IllegalArgumentException("No cpus");
+        }
+        StringBuilder list = new StringBuilder();
+        for (int cpu : cpus) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpu);
+        }
+        return list.toString();
+    }
+
+    /**
+     * @param cpuList Linux cpu list format, e.g. "0-3,8,10-11"
+     */
+    static int[] parseCpuList(String cpuList) {
+        int[] cpus = new int[0];
+        for (String range : cpuList.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            int from = cpus.length;
+            cpus = Arrays.copyOf(cpus, from + last - first + 1);
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus[from + cpu - first] = cpu;
+            }
+        }
+        return cpus;
+    }
+}
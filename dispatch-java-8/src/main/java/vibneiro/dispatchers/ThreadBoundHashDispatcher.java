@@ -3,13 +3,34 @@ package vibneiro.dispatchers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vibneiro.idgenerators.IdGenerator;
-import vibneiro.idgenerators.time.SystemDateSource;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * @author: Ivan Voroshilin
@@ -17,6 +38,13 @@ import java.util.concurrent.ThreadFactory;
  * @since 1.8
  * ThreadBoundHashDispatcher
  *
+ * Worker queues are unbounded by default, or preallocated ring buffers bounded by their capacity.
+ *
+ * DispatchIds are bound to workers by jump consistent hashing, {@link #resize(int)} hands moved keys over in FIFO.
+ *
+ * Load tracking (optional): hot dispatchIds of an overloaded worker are moved off it, FIFO kept.
+ *
+ * Priority lanes (optional): a worker queue is a {@link PriorityLaneQueue}.
  */
 @ThreadSafe
 public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedListener {
@@ -24,14 +52,47 @@ public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedLis
     private static final Logger log = LoggerFactory.getLogger(ThreadBoundHashDispatcher.class);
 
     private static final long JOIN_TIMEOUT = 10000L;
+
+    private static final int PRODUCER_STRIPES = 64;
+    private static final int PRODUCER_STRIPE_SHIFT = 4; // 16 ints per stripe to keep stripes on own cache lines
+    // a producer may wait for room or a task may dispatch, thus routing is switched at a later try
+    private static final long QUIESCENCE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final Duration DEFAULT_LOAD_TRACKING_PERIOD = Duration.ofSeconds(1);
+    private static final int MAX_OVERRIDES = 4096;
+
     // +1 more thread for compensation
+    private IdGenerator idGenerator; // null: tasks without a dispatchId get no id
     private int threadsCount = Runtime.getRuntime().availableProcessors() + 1;
 
     private ThreadFactory threadFactory = new CountingThreadFactory(false);
-    private IdGenerator idGenerator = new IdGenerator("ID_", new SystemDateSource());
+    private int[] workerCpus; // null if workers are not pinned
+    private CpuAffinity cpuAffinity = CpuAffinity.taskset();
+    private AffinityThreadFactory workerPinning; // null if workers are not pinned
 
-    private Worker[] workers;
-    private Thread[] threads;
+    private WaitStrategy waitStrategy = new BlockingWaitStrategy();
+    private int ringBufferCapacity = 0; // 0 for unbounded linked queues
+    private int maxPendingTasksPerWorker = Integer.MAX_VALUE;
+    private int maxPendingTasks = Integer.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private final OverflowStats overflowStats = new OverflowStats();
+    private Backpressure backpressure; // null if unbounded
+    private Duration loadTrackingPeriod; // null if load is not tracked
+    private double rebalanceThreshold; // 0 if dispatchIds are not rebalanced
+    private int[] priorityWeights; // null without priority lanes
+
+    private volatile Routing routing;
+    // resize, rebalance and stop change routing one at a time
+    private final ReentrantLock routingLock = new ReentrantLock();
+
+    private ScheduledFuture<?> loadTracking;
+    private long loadTrackingNanos;
+    private long movedKeys;
+    private volatile LoadStats loadStats = LoadStats.EMPTY;
+
+    // Producers in between routing and enqueuing a task
+    private final AtomicIntegerArray producers = new AtomicIntegerArray(PRODUCER_STRIPES << PRODUCER_STRIPE_SHIFT);
+    private volatile boolean resizing;
 
     private volatile boolean started;
     private volatile boolean stopped;
@@ -53,6 +114,9 @@ public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedLis
             return this;
         }
 
+        /**
+         * Tasks without a dispatchId are dispatched under ids of the generator, by default they go to a random worker.
+         */
         public Builder setIdGenerator(IdGenerator idGenerator) {
             ThreadBoundHashDispatcher.this.idGenerator = idGenerator;
             return this;
@@ -63,6 +127,126 @@ public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedLis
             return this;
         }
 
+        /**
+         * How idle workers wait for tasks: {@link BusySpinWaitStrategy}, {@link SpinThenYieldWaitStrategy},
+         * {@link YieldingWaitStrategy}, {@link BackoffParkWaitStrategy} or {@link BlockingWaitStrategy} (default).
+         */
+        public Builder setWaitStrategy(WaitStrategy waitStrategy) {
+            ThreadBoundHashDispatcher.this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * Limits the number of queued and running tasks of a worker thread, i.e. of all dispatchIds bound to it.
+         */
+        public Builder setMaxPendingTasksPerWorker(int maxPendingTasksPerWorker) {
+            if (maxPendingTasksPerWorker <= 0) {
+                throw new IllegalArgumentException("maxPendingTasksPerWorker must be positive: " + maxPendingTasksPerWorker);
+            }
+            ThreadBoundHashDispatcher.this.maxPendingTasksPerWorker = maxPendingTasksPerWorker;
+            return this;
+        }
+
+        /**
+         * Limits the number of queued and running tasks of all workers.
+         */
+        public Builder setMaxPendingTasks(int maxPendingTasks) {
+            if (maxPendingTasks <= 0) {
+                throw new IllegalArgumentException("maxPendingTasks must be positive: " + maxPendingTasks);
+            }
+            ThreadBoundHashDispatcher.this.maxPendingTasks = maxPendingTasks;
+            return this;
+        }
+
+        /**
+         * What to do with a task once a pending tasks limit is reached, {@link OverflowPolicy#REJECT} by default.
+         * {@link OverflowPolicy#DROP_OLDEST} drops the oldest task of the worker, whatever its dispatchId is;
+         * it is not supported with priority lanes, whose queues are polled by their workers only.
+         */
+        public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            ThreadBoundHashDispatcher.this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Each worker gets a preallocated ring buffer of the capacity (rounded up to a power of 2) as its queue.
+         * Bounds pending tasks per worker by the capacity, {@link OverflowPolicy#DROP_OLDEST} is supported too.
+         */
+        public Builder ringBufferQueues(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            ThreadBoundHashDispatcher.this.ringBufferCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Tracks queue depths and arrival rates of workers every period, see {@link #getLoadStats()}.
+         * One of 16 dispatches is sampled to find the hottest dispatchIds.
+         */
+        public Builder setLoadTrackingPeriod(Duration period) {
+            if (period.isNegative() || period.isZero()) {
+                throw new IllegalArgumentException("period must be positive: " + period);
+            }
+            ThreadBoundHashDispatcher.this.loadTrackingPeriod = period;
+            return this;
+        }
+
+        /**
+         * Once the arrival rate of a worker exceeds the mean one by imbalanceThreshold times, colder of its hottest
+         * dispatchIds are routed to the least loaded workers; the hottest one stays, it would overload any worker.
+         * Load is tracked every second unless the period is set.
+         */
+        public Builder setRebalanceThreshold(double imbalanceThreshold) {
+            if (!(imbalanceThreshold > 1.0)) {
+                throw new IllegalArgumentException("imbalanceThreshold must be above 1.0: " + imbalanceThreshold);
+            }
+            ThreadBoundHashDispatcher.this.rebalanceThreshold = imbalanceThreshold;
+            return this;
+        }
+
+        /**
+         * Pins worker N to the core N % number of cpus, a core per worker as long as there are enough of them;
+         * overrides the thread factory. Best with cores isolated from the scheduler and interrupts
+         * (isolcpus, nohz_full), e.g. of a NUMA node: {@link CpuAffinity#numaNodeCpus(int)}.
+         * A restarted worker thread is pinned to the core of its worker again.
+         */
+        public Builder pinWorkersToCpus(int... cpus) {
+            if (cpus.length == 0) {
+                throw new IllegalArgumentException("No cpus to pin workers to");
+            }
+            ThreadBoundHashDispatcher.this.workerCpus = cpus.clone();
+            return this;
+        }
+
+        /**
+         * How workers are pinned, {@link CpuAffinity#taskset()} by default.
+         */
+        public Builder setCpuAffinity(CpuAffinity cpuAffinity) {
+            ThreadBoundHashDispatcher.this.cpuAffinity = cpuAffinity;
+            return this;
+        }
+
+        /**
+         * Each worker serves a lane per {@link Priority} by weighted round robin, 8:4:1 by default.
+         * A ring buffer is preallocated per lane with {@link #ringBufferQueues(int)}.
+         */
+        public Builder priorityLanes() {
+            if (ThreadBoundHashDispatcher.this.priorityWeights == null) {
+                ThreadBoundHashDispatcher.this.priorityWeights = PriorityLanes.DEFAULT_WEIGHTS.clone();
+            }
+            return this;
+        }
+
+        /**
+         * Shares of worker time taken by HIGH, NORMAL and BULK lanes when all of them have tasks.
+         * Implies {@link #priorityLanes()}.
+         */
+        public Builder setPriorityWeights(int high, int normal, int bulk) {
+            ThreadBoundHashDispatcher.this.priorityWeights = PriorityLanes.weights(high, normal, bulk);
+            return this;
+        }
+
         public ThreadBoundHashDispatcher build() {
             return ThreadBoundHashDispatcher.this;
         }
@@ -75,19 +259,253 @@ public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedLis
             throw new RuntimeException("Already started or in progress");
         }
 
+        if (priorityWeights != null && overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            throw new IllegalStateException("DROP_OLDEST is not supported with priority lanes");
+        }
+
         started  = true;
 
-        workers = new Worker[threadsCount];
-        threads = new Thread[threadsCount];
+        int maxPendingPerWorker = maxPendingTasksPerWorker;
+        if (ringBufferCapacity > 0) {
+            // a worker never has more queued tasks than pending ones, thus its ring is never full
+            maxPendingPerWorker = Math.min(maxPendingPerWorker, RingBufferQueue.capacityFor(ringBufferCapacity));
+        }
+
+        if (maxPendingPerWorker != Integer.MAX_VALUE || maxPendingTasks != Integer.MAX_VALUE) {
+            backpressure = new Backpressure(maxPendingPerWorker, maxPendingTasks, overflowPolicy, overflowStats);
+        }
+
+        if (workerCpus != null) {
+            int[][] cpuSets = new int[workerCpus.length][];
+            for (int i = 0; i < workerCpus.length; i++) {
+                cpuSets[i] = new int[] {workerCpus[i]};
+            }
+            workerPinning = new AffinityThreadFactory("dispatcher-worker-", cpuAffinity, cpuSets);
+        }
 
+        if (rebalanceThreshold > 0 && loadTrackingPeriod == null) {
+            loadTrackingPeriod = DEFAULT_LOAD_TRACKING_PERIOD;
+        }
+
+        Worker[] workers = new Worker[threadsCount];
         for (int i = 0; i < threadsCount; i++) {
-            workers[i] = new Worker(i, this);
-            createNewThread(i);
+            workers[i] = newWorker(i);
+        }
+        routing = new Routing(workers, Collections.emptyMap());
+
+        if (loadTrackingPeriod != null) {
+            loadTrackingNanos = System.nanoTime();
+            loadTracking = Delayer.every(this::trackLoad, loadTrackingPeriod);
+        }
+    }
+
+    /**
+     * Changes the number of worker threads, only dispatchIds of added or removed workers move to other workers.
+     * Blocks until the moved dispatchIds are handed off, i.e. until the workers losing them have run the tasks
+     * dispatched before the resize. Meanwhile, dispatching goes on and tasks of moved dispatchIds are held back.
+     * DispatchIds moved by rebalancing go back to their hashed workers.
+     * @throws IllegalStateException - if not started, stopped or called from a task of this dispatcher
+     */
+    public void resize(int threadsCount) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException("threadsCount must be positive: " + threadsCount);
+        }
+        routingLock.lock();
+        try {
+            if (!started || stopped) {
+                throw new IllegalStateException("Dispatcher is not running, cannot resize");
+            }
+
+            Routing from = routing;
+            for (Worker worker : from.workers) {
+                if (worker.runner == Thread.currentThread()) {
+                    throw new IllegalStateException("Cannot resize from a task, it would wait for itself");
+                }
+            }
+            if (from.migration != null) { // moved keys cannot move again before they are handed off
+                from.migration.handedOff.join();
+            }
+            if (threadsCount == from.workers.length) {
+                return;
+            }
+
+            Worker[] to = Arrays.copyOf(from.workers, threadsCount);
+            for (int i = from.workers.length; i < threadsCount; i++) {
+                to[i] = newWorker(i);
+            }
+            Migration migration;
+            while ((migration = switchRouting(new Routing(to, Collections.emptyMap()))) == null) {
+                LockSupport.parkNanos(QUIESCENCE_TIMEOUT_NANOS); // lets the producers waiting for the resize go on
+            }
+            this.threadsCount = threadsCount;
+
+            migration.handedOff.join();
+            log.info("Resized from {} to {} workers", from.workers.length, threadsCount);
+        } finally {
+            routingLock.unlock();
+        }
+    }
+
+    // Quiesces producers, publishes the routing and starts the handoff, null if producers are not quiesced in time
+    private Migration switchRouting(Routing to) {
+        Migration migration = new Migration(routing, to);
+        resizing = true;
+        try {
+            if (!awaitQuiescence(QUIESCENCE_TIMEOUT_NANOS)) {
+                return null;
+            }
+            routing = to;
+            for (Barrier barrier : migration.barriers) {
+                if (barrier != null) {
+                    barrier.source.enqueueSignal(barrier);
+                }
+            }
+        } finally {
+            resizing = false;
+        }
+        return migration;
+    }
+
+    /**
+     * @return current number of worker threads
+     */
+    public int getThreadsCount() {
+        return routing.workers.length;
+    }
+
+    /**
+     * @return load of the workers over the last period, empty unless load tracking or rebalancing is set up
+     */
+    public LoadStats getLoadStats() {
+        return loadStats;
+    }
+
+    int workerIndexOf(long dispatchId) {
+        return routing.indexOf(dispatchId);
+    }
+
+    // Runs on the delayer thread, thus it never waits for a handoff and waits for producers within a bound only
+    void trackLoad() {
+        try {
+            Routing routing = this.routing;
+            Worker[] workers = routing.workers;
+            long now = System.nanoTime();
+            double seconds = Math.max(now - loadTrackingNanos, 1) / 1e9;
+            loadTrackingNanos = now;
+
+            KeyLoadTracker.Period[] periods = new KeyLoadTracker.Period[workers.length];
+            long[] rates = new long[workers.length];
+            int[] depths = new int[workers.length];
+            for (int i = 0; i < workers.length; i++) {
+                periods[i] = workers[i].load.endPeriod();
+                rates[i] = (long) (periods[i].arrivals / seconds);
+                depths[i] = workers[i].queueDepth();
+            }
+
+            if (rebalanceThreshold > 0 && routingLock.tryLock()) {
+                try {
+                    if (!stopped && routing == this.routing && routing.migration == null) {
+                        rebalance(routing, periods, rates);
+                    }
+                } finally {
+                    routingLock.unlock();
+                }
+            }
+            loadStats = new LoadStats(depths, rates, this.routing.overrides.size(), movedKeys);
+        } catch (Throwable t) {
+            log.warn("Exception thrown when tracking load", t);
+        }
+    }
+
+    private void rebalance(Routing routing, KeyLoadTracker.Period[] periods, long[] rates) {
+        int workersCount = rates.length;
+        long sum = 0;
+        int source = 0;
+        for (int i = 0; i < workersCount; i++) {
+            sum += rates[i];
+            if (rates[i] > rates[source]) {
+                source = i;
+            }
+        }
+        double mean = (double) sum / workersCount;
+        if (sum == 0 || rates[source] <= rebalanceThreshold * mean) {
+            return;
+        }
+
+        long[] load = rates.clone();
+        Map<Long, Integer> overrides = new HashMap<>(routing.overrides);
+        KeyLoadTracker.Period period = periods[source];
+        int moved = 0;
+        // the hottest dispatchId stays
+        for (int i = 1; i < period.hotKeys.length && load[source] > mean; i++) {
+            long key = period.hotKeys[i];
+            long keyRate = (long) (period.shares[i] * rates[source]);
+            if (keyRate == 0) {
+                break; // colder ones follow
+            }
+            if (routing.indexOf(key) != source) {
+                continue; // moved already
+            }
+            int target = 0;
+            for (int w = 1; w < workersCount; w++) {
+                if (load[w] < load[target]) {
+                    target = w;
+                }
+            }
+            if (load[target] + keyRate >= load[source] - keyRate) {
+                continue; // would not make it better
+            }
+            if (target == jumpHash(key, workersCount)) {
+                overrides.remove(key);
+            } else if (overrides.size() < MAX_OVERRIDES) {
+                overrides.put(key, target);
+            } else {
+                break;
+            }
+            load[source] -= keyRate;
+            load[target] += keyRate;
+            moved++;
+        }
+
+        if (moved > 0) {
+            if (switchRouting(new Routing(routing.workers, overrides)) == null) {
+                log.debug("Rebalancing skipped, producers are not quiesced in time");
+                return;
+            }
+            movedKeys += moved;
+            log.info("Rebalanced {} dispatchIds off the worker {}, arrival rates: {}", moved, source,
+                    Arrays.toString(rates));
         }
     }
 
+    /**
+     * Blocks until the workers have run all queued tasks or for JOIN_TIMEOUT at most.
+     */
     @Override
     public void stop() {
+        drainAsync(Duration.ofMillis(JOIN_TIMEOUT)).join();
+    }
+
+    /**
+     * Waits for dispatch calls in progress to return, producers waiting for room are rejected. Workers run their
+     * queued tasks and end. At the deadline, workers still running are interrupted and the tasks left in their queues
+     * or held back by a handoff are handed back by the report, thus no queued task is lost silently.
+     */
+    @Override
+    public CompletableFuture<ShutdownReport> stopAsync(Duration deadline) {
+        return drainAsync(Objects.requireNonNull(deadline, "deadline"));
+    }
+
+    private CompletableFuture<ShutdownReport> drainAsync(Duration deadline) {
+        routingLock.lock(); // a resize in progress hands off its dispatchIds first
+        try {
+            return drainWorkers(deadline);
+        } finally {
+            routingLock.unlock();
+        }
+    }
+
+    private CompletableFuture<ShutdownReport> drainWorkers(Duration deadline) {
 
         if(stopped) {
             throw new RuntimeException("Already stopped or in progress");
@@ -95,156 +513,851 @@ public class ThreadBoundHashDispatcher implements Dispatcher, ThreadCompletedLis
 
         stopped  = true;
 
-        for (Thread thread : threads) {
-            thread.interrupt();
+        if (loadTracking != null) {
+            loadTracking.cancel(false);
         }
-        long startTime = System.currentTimeMillis();
-        for (Thread thread : threads) {
-            boolean interrupted = false;
-            try {
-                while (true) {
-                    try {
-                        long millis = startTime + JOIN_TIMEOUT - System.currentTimeMillis();
-                        if (millis > 0) {
-                            thread.join(millis);
-                        }
-                        break;
-                    } catch (InterruptedException e) {
-                        interrupted = true;
-                    }
-                }
-            } finally {
-                if (interrupted) {
-                    Thread.currentThread().interrupt();
+        if (backpressure != null) {
+            backpressure.close(); // producers waiting for room leave the routing
+        }
+        awaitQuiescence(Long.MAX_VALUE); // nothing is enqueued from now on
+
+        Routing routing = this.routing;
+        Worker[] workers = routing.workers;
+        long pendingTasks = 0;
+        CompletableFuture<?>[] terminations = new CompletableFuture<?>[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            pendingTasks += workers[i].tasks.size();
+            terminations[i] = workers[i].terminated;
+        }
+        // Workers end once drained, thus not before a rebalancing handoff releases the held back tasks.
+        CompletableFuture<Void> handedOff = routing.migration == null
+                ? CompletableFuture.completedFuture(null)
+                : routing.migration.handedOff;
+        handedOff.thenRun(() -> {
+            for (Worker worker : workers) {
+                worker.stopWhenDrained();
+            }
+        });
+
+        final long pendingAtStop = pendingTasks;
+        CompletableFuture<ShutdownReport> report = new CompletableFuture<>();
+        AtomicBoolean completing = new AtomicBoolean();
+        Runnable complete = () -> {
+            if (!completing.compareAndSet(false, true)) { // either at the deadline or once all workers ended
+                return;
+            }
+            List<Runnable> abandoned = new ArrayList<>();
+            for (Worker worker : workers) {
+                worker.halt(abandoned);
+                Thread runner = worker.runner;
+                if (runner != null) {
+                    runner.interrupt();
                 }
             }
-        }
+            report.complete(new ShutdownReport(Math.max(0, pendingAtStop - abandoned.size()), abandoned.size(),
+                    abandoned, 0, 0));
+        };
+
+        ScheduledFuture<?> timeout = Delayer.delay(complete, deadline);
+        CompletableFuture.allOf(terminations).whenComplete((v, t) -> {
+            timeout.cancel(false);
+            complete.run(); // hands back tasks dispatched concurrently with stop, if any
+        });
+        return report;
+    }
+
+    /**
+     * @return counters of tasks that hit the pending tasks limits
+     */
+    public OverflowStats getOverflowStats() {
+        return overflowStats;
+    }
+
+    /**
+     * The task is enqueued as is, nothing is allocated on top of it with ring buffer queues.
+     */
+    @Override
+    public void dispatch(String dispatchId, Runnable task) {
+        checkNotStopped(dispatchId);
+        enqueue(dispatchId.hashCode(), task);
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Runnable task) {
+        checkNotStopped(dispatchId);
+        enqueue(dispatchId, task);
+    }
+
+    @Override
+    public void dispatch(String dispatchId, Priority priority, Runnable task) {
+        checkNotStopped(dispatchId);
+        enqueue(dispatchId.hashCode(), priority, task);
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Priority priority, Runnable task) {
+        checkNotStopped(dispatchId);
+        enqueue(dispatchId, priority, task);
+    }
+
+    @Override
+    public void dispatch(String dispatchId, Runnable task, MessageCompletedListener listener) {
+        dispatch(dispatchId, new ListenedTask(task, listener));
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Runnable task, MessageCompletedListener listener) {
+        dispatch(dispatchId, new ListenedTask(task, listener));
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAsync(String dispatchId, Runnable task, Duration delay) {
+        checkNotStopped(dispatchId);
+        return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
     }
 
+    @Override
+    public CompletableFuture<Void> scheduleAsync(long dispatchId, Runnable task, Duration delay) {
+        checkNotStopped(dispatchId);
+        return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAtFixedRateAsync(String dispatchId, Runnable task, Duration initialDelay,
+                                                            Duration period) {
+        checkNotStopped(dispatchId);
+        return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAtFixedRateAsync(long dispatchId, Runnable task, Duration initialDelay,
+                                                            Duration period) {
+        checkNotStopped(dispatchId);
+        return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+    }
+
+    /**
+     * Unless an id generator is set, a random worker is picked, as a unique dispatchId only needs some worker.
+     */
     @Override
     public CompletableFuture<Void> dispatchAsync(Runnable task) {
-        return dispatchAsync(idGenerator.nextId(), task);
+        if (idGenerator != null) {
+            return dispatchAsync(idGenerator.nextId(), task);
+        }
+        checkNotStopped("");
+        RunnableTask<Void> runnable = new RunnableTask<>(task);
+        int stripe = enterRouting();
+        try {
+            Worker[] workers = routing.workers;
+            workers[ThreadLocalRandom.current().nextInt(workers.length)].enqueue(runnable, false);
+        } finally {
+            exitRouting(stripe);
+        }
+        return runnable;
     }
 
     @Override
     public CompletableFuture<Void> dispatchAsync(String dispatchId, Runnable task) {
+        checkNotStopped(dispatchId);
+        RunnableTask<Void> runnable = new RunnableTask<>(task);
+        enqueue(dispatchId.hashCode(), runnable);
+        return runnable;
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(long dispatchId, Runnable task) {
+        checkNotStopped(dispatchId);
+        RunnableTask<Void> runnable = new RunnableTask<>(task);
+        enqueue(dispatchId, runnable);
+        return runnable;
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(String dispatchId, Priority priority, Runnable task) {
+        checkNotStopped(dispatchId);
+        RunnableTask<Void> runnable = new RunnableTask<>(task);
+        enqueue(dispatchId.hashCode(), priority, runnable);
+        return runnable;
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(long dispatchId, Priority priority, Runnable task) {
+        checkNotStopped(dispatchId);
+        RunnableTask<Void> runnable = new RunnableTask<>(task);
+        enqueue(dispatchId, priority, runnable);
+        return runnable;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submitAsync(String dispatchId, Supplier<T> supplier) {
+        checkNotStopped(dispatchId);
+        RunnableTask<T> runnable = new RunnableTask<>(supplier);
+        enqueue(dispatchId.hashCode(), runnable);
+        return runnable;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submitAsync(long dispatchId, Supplier<T> supplier) {
+        checkNotStopped(dispatchId);
+        RunnableTask<T> runnable = new RunnableTask<>(supplier);
+        enqueue(dispatchId, runnable);
+        return runnable;
+    }
+
+    /**
+     * The routing is entered once per batch, and a worker is woken up once all groups of the batch are enqueued
+     * rather than on each of them.
+     */
+    @Override
+    public CompletableFuture<Void> dispatchAllAsync(Collection<KeyedTask> tasks) {
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a batch");
+        }
+        DispatchBatch batch = DispatchBatch.of(tasks);
+        Set<Worker> enqueued = new HashSet<>();
+        int stripe = enterRouting();
         try {
-            Worker worker = getWorker(dispatchId);
-            return worker.submit(dispatchId, task);
-        } catch (InterruptedException e) {
-            log.error("Interrupted");
+            Routing routing = this.routing;
+            for (DispatchBatch.Group group : batch.groups()) {
+                long key = group.hasLongDispatchId() ? group.longDispatchId() : group.dispatchId().hashCode();
+                try {
+                    enqueued.add(enqueue(routing, key, Priority.NORMAL, group, false));
+                } catch (RejectedExecutionException e) { // the overflow policy
+                    group.completeExceptionally(e);
+                }
+            }
+        } finally {
+            exitRouting(stripe);
+            for (Worker worker : enqueued) {
+                worker.wakeUp();
+            }
+        }
+        return batch.future();
+    }
+
+    private void checkNotStopped(Object dispatchId) {
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+    }
+
+    private void enqueue(long key, Runnable task) {
+        enqueue(key, Priority.NORMAL, task);
+    }
+
+    private void enqueue(long key, Priority priority, Runnable task) {
+        Objects.requireNonNull(priority, "priority");
+        int stripe = enterRouting();
+        try {
+            enqueue(this.routing, key, priority, task, true);
+        } finally {
+            exitRouting(stripe);
+        }
+    }
+
+    /**
+     * Called between entering and exiting the routing.
+     * @param wakeUp false to leave waking the worker up to the caller, see {@link Worker#wakeUp()}
+     * @return the worker of the key
+     */
+    private Worker enqueue(Routing routing, long key, Priority priority, Runnable task, boolean wakeUp) {
+        boolean exempt = task instanceof Backpressure.Exempt; // checked before the task is wrapped
+        Worker worker = routing.workers[routing.indexOf(key)];
+        Migration migration = routing.migration;
+        if (migration != null) {
+            task = migration.handOff(key, worker, task);
+        }
+        KeyLoadTracker load = worker.load;
+        if (load != null && ThreadLocalRandom.current().nextInt(KeyLoadTracker.SAMPLE_RATE) == 0) {
+            load.record(key);
         }
-        return null;
+        if (priorityWeights != null) {
+            task = PriorityLaneQueue.keyed(key, priority, task);
+        }
+        if (exempt) {
+            worker.enqueueSignal(task);
+        } else if (wakeUp) {
+            worker.enqueue(task);
+        } else {
+            worker.enqueueQuietly(task);
+        }
+        return worker;
     }
 
-    private Worker getWorker(String dispatchId) {
-        // despite that modulo is expensive, the requirement is to strictly bound dispatchId to a distinct Thread.
-        // Thus, bit-masking for cheap indexing is more expensive for this usecase.
-        return workers[(dispatchId.hashCode() & Integer.MAX_VALUE) % threadsCount];
+    private int enterRouting() {
+        int stripe = ((int) Thread.currentThread().getId() & (PRODUCER_STRIPES - 1)) << PRODUCER_STRIPE_SHIFT;
+        while (true) {
+            producers.getAndIncrement(stripe);
+            // a volatile write followed by a volatile read, thus either the resize sees this producer or vice versa
+            if (!resizing) {
+                if (stopped) { // same for the stop
+                    producers.getAndDecrement(stripe);
+                    throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a task");
+                }
+                return stripe;
+            }
+            producers.getAndDecrement(stripe);
+            while (resizing) {
+                Thread.yield();
+            }
+        }
     }
 
-    private void createNewThread(int workerIndex) {
-        threads[workerIndex] = threadFactory.newThread(workers[workerIndex]);
-        threads[workerIndex].start();
-        log.warn("{} Thread[{}] started", threads[workerIndex].getName());
+    private void exitRouting(int stripe) {
+        producers.getAndDecrement(stripe);
     }
 
+    // false on timeout
+    private boolean awaitQuiescence(long timeoutNanos) {
+        long start = System.nanoTime();
+        for (int i = 0; i < PRODUCER_STRIPES; i++) {
+            while (producers.get(i << PRODUCER_STRIPE_SHIFT) != 0) {
+                if (System.nanoTime() - start > timeoutNanos) {
+                    return false;
+                }
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Jump consistent hash (Lamping, Veach): on growing from n to n + 1 buckets, only 1/(n + 1) of keys move,
+     * all of them to the new bucket.
+     */
+    static int jumpHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    private Worker newWorker(int workerIndex) {
+        Queue<Runnable> queue;
+        if (priorityWeights != null) {
+            queue = new PriorityLaneQueue(ringBufferCapacity, priorityWeights);
+        } else if (ringBufferCapacity > 0) {
+            queue = new RingBufferQueue<>(ringBufferCapacity);
+        } else {
+            queue = new ConcurrentLinkedQueue<>();
+        }
+        KeyLoadTracker load = loadTrackingPeriod != null ? new KeyLoadTracker() : null;
+        Worker worker = new Worker(workerIndex, this, queue, waitStrategy, backpressure, load);
+        createNewThread(worker);
+        return worker;
+    }
+
+    private void createNewThread(Worker worker) {
+        Thread thread = workerPinning != null
+                ? workerPinning.newThread(worker, worker.workerIndex)
+                : threadFactory.newThread(worker);
+        thread.start();
+        log.warn("{} Thread[{}] started", thread.getName());
+    }
+
+    /**
+     * Called by a worker thread ending unexpectedly, the worker gets a new thread unless the dispatcher is stopped.
+     */
     @Override
     public void notifyOnThreadCompleted(int workerIndex) {
-        if(!stopped) {
-            createNewThread(workerIndex);
+        Routing routing = this.routing;
+        Migration migration = routing.migration;
+        for (Worker[] workers : migration == null ? new Worker[][] {routing.workers} : migration.workers()) {
+            if (workerIndex < workers.length && workers[workerIndex].runner == Thread.currentThread()) {
+                if (!stopped) {
+                    createNewThread(workers[workerIndex]);
+                } else {
+                    workers[workerIndex].terminated.complete(null);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Workers and dispatchIds routed off their hashed workers, immutable but the migration.
+     */
+    private static final class Routing {
+
+        private final Worker[] workers;
+        private final Map<Long, Integer> overrides;
+        // open addressing table of overrides, null if none
+        private final long[] overrideKeys;
+        private final int[] overrideIndexes; // worker index + 1, 0 for a free slot
+        private final int overrideShift;
+        // into this routing, null once handed off
+        private volatile Migration migration;
+
+        Routing(Worker[] workers, Map<Long, Integer> overrides) {
+            this.workers = workers;
+            this.overrides = overrides;
+            if (overrides.isEmpty()) {
+                overrideKeys = null;
+                overrideIndexes = null;
+                overrideShift = 0;
+                return;
+            }
+            int capacity = Integer.highestOneBit(overrides.size() * 4 - 1) << 1;
+            overrideKeys = new long[capacity];
+            overrideIndexes = new int[capacity];
+            overrideShift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+            for (Map.Entry<Long, Integer> override : overrides.entrySet()) {
+                int slot = slot(override.getKey());
+                while (overrideIndexes[slot] != 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                overrideKeys[slot] = override.getKey();
+                overrideIndexes[slot] = override.getValue() + 1;
+            }
+        }
+
+        int indexOf(long key) {
+            if (overrideKeys != null) {
+                int mask = overrideKeys.length - 1;
+                for (int slot = slot(key); overrideIndexes[slot] != 0; slot = (slot + 1) & mask) {
+                    if (overrideKeys[slot] == key) {
+                        return overrideIndexes[slot] - 1;
+                    }
+                }
+            }
+            return jumpHash(key, workers.length);
+        }
+
+        private int slot(long key) {
+            return (Long.hashCode(key) * 0x9E3779B9) >>> overrideShift;
+        }
+    }
+
+    /**
+     * Handoff of dispatchIds moved by a resize or rebalancing.
+     */
+    private static final class Migration {
+
+        private final Routing from;
+        private final Routing to;
+        // by index of the old worker, null if the worker keeps all its dispatchIds
+        private final Barrier[] barriers;
+        private final Worker[] targets;
+        private final AtomicInteger pendingReleases;
+        private final CompletableFuture<Void> handedOff = new CompletableFuture<>();
+
+        Migration(Routing from, Routing to) {
+            this.from = from;
+            this.to = to;
+            int fromCount = from.workers.length;
+            int toCount = to.workers.length;
+            this.barriers = new Barrier[fromCount];
+            for (int i = 0; i < fromCount; i++) {
+                // every old worker gives keys to the added ones, keys of removed workers spread over the rest
+                if (toCount > fromCount || i >= toCount) {
+                    barriers[i] = new Barrier(this, from.workers[i], i >= toCount);
+                }
+            }
+            Set<Long> overridden = new HashSet<>(from.overrides.keySet());
+            overridden.addAll(to.overrides.keySet());
+            for (long key : overridden) {
+                int i = from.indexOf(key);
+                if (barriers[i] == null && to.indexOf(key) != i) {
+                    barriers[i] = new Barrier(this, from.workers[i], false);
+                }
+            }
+            // a release to a worker not getting keys of the source is a no-op
+            this.targets = to.workers;
+
+            int sources = 0;
+            for (Barrier barrier : barriers) {
+                if (barrier != null) {
+                    sources++;
+                }
+            }
+            pendingReleases = new AtomicInteger(sources * targets.length);
+            if (sources == 0) {
+                handedOff.complete(null);
+            } else {
+                to.migration = this;
+            }
+        }
+
+        Worker[][] workers() {
+            return new Worker[][] {to.workers, from.workers};
+        }
+
+        Runnable handOff(long key, Worker target, Runnable task) {
+            int index = from.indexOf(key);
+            Barrier barrier = barriers[index];
+            if (barrier == null || from.workers[index] == target) {
+                return task;
+            }
+            return new HandoffTask(barrier, target, task);
+        }
+
+        void released() {
+            if (pendingReleases.decrementAndGet() == 0) {
+                to.migration = null;
+                handedOff.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Run by an old worker once it has run all tasks enqueued before the switch, releases the held back tasks.
+     */
+    private static final class Barrier implements Backpressure.Undroppable, PriorityLaneQueue.Fence {
+
+        private final Migration migration;
+        private final Worker source;
+        private final boolean removed;
+        private volatile boolean passed;
+
+        Barrier(Migration migration, Worker source, boolean removed) {
+            this.migration = migration;
+            this.source = source;
+            this.removed = removed;
+        }
+
+        @Override
+        public void run() {
+            passed = true;
+            for (Worker target : migration.targets) {
+                target.enqueueSignal(new Release(this, target));
+            }
+            if (removed) {
+                source.stopWhenDrained();
+            }
+        }
+    }
+
+    private static final class Release implements Backpressure.Undroppable {
+
+        private final Barrier barrier;
+        private final Worker target;
+
+        Release(Barrier barrier, Worker target) {
+            this.barrier = barrier;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            try {
+                target.release(barrier);
+            } finally {
+                barrier.migration.released();
+            }
+        }
+    }
+
+    /**
+     * Task of a moved dispatchId, run by its new worker after the tasks enqueued into the old one.
+     */
+    private static final class HandoffTask implements Runnable {
+
+        private final Barrier barrier;
+        private final Worker target;
+        private final Runnable task;
+
+        HandoffTask(Barrier barrier, Worker target, Runnable task) {
+            this.barrier = barrier;
+            this.target = target;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (target.runner != Thread.currentThread()) { // handed back at stop and run elsewhere
+                task.run();
+                return;
+            }
+            target.runAfter(barrier, task);
         }
     }
 
-    private static class Worker implements Runnable {
+    private static class Worker implements Runnable, WaitStrategy.Parker {
 
-        private Queue<RunnableTask> tasks = new ConcurrentLinkedQueue<>();
-        private final Object lock = new Object();
+        private final Queue<Runnable> tasks;
         private final ThreadCompletedListener listener;
         private final int workerIndex;
+        private final WaitStrategy waitStrategy;
+        private final Backpressure backpressure; // null if unbounded
+        private final AtomicInteger pending = new AtomicInteger();
+        private final KeyLoadTracker load; // null unless load is tracked
+
+        private volatile Thread runner;
+        // Producers signal the worker only while it is parked
+        private volatile boolean sleeping;
+        // the worker ends once its queue is empty
+        private volatile boolean stopping;
+        // the worker ends right after the running task, if any
+        private volatile boolean halted;
+        private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+        // tasks held back until the barrier is passed, guarded by itself as halt hands them back
+        private final Map<Barrier, ArrayDeque<Runnable>> deferred = new HashMap<>();
 
-        public Worker(int workerIndex, ThreadCompletedListener listener) {
+        public Worker(int workerIndex, ThreadCompletedListener listener, Queue<Runnable> tasks,
+                      WaitStrategy waitStrategy, Backpressure backpressure, KeyLoadTracker load) {
             this.workerIndex = workerIndex;
+            this.tasks = tasks;
             this.listener = listener;
+            this.waitStrategy = waitStrategy;
+            this.backpressure = backpressure;
+            this.load = load;
+        }
+
+        // size() of a linked queue walks it
+        int queueDepth() {
+            return backpressure != null ? pending.get() : tasks.size();
+        }
+
+        public void enqueue(Runnable runnable) {
+            enqueue(runnable, true);
         }
 
-        public CompletableFuture<Void> submit(String dispatchId, Runnable task) throws InterruptedException {
+        /**
+         * @param ordered false for a task without a dispatchId, which the caller may run on overflow
+         */
+        void enqueue(Runnable runnable, boolean ordered) {
+
+            if (backpressure == null) {
+                tasks.offer(runnable);
+            } else if (!offerBounded(runnable, ordered)) {
+                return; // taken care of by the overflow policy
+            }
 
-            CompletableFuture<Void> f = new CompletableFuture<>();
-            RunnableTask runnable = new RunnableTask(dispatchId, task, f);
+            wakeUp();
+        }
 
-            tasks.offer(runnable);
+        /**
+         * Same as {@link #enqueue} leaving the worker asleep until {@link #wakeUp()}. A bounded queue wakes it up
+         * nevertheless: a producer waiting for room must not wait for a sleeping worker.
+         */
+        void enqueueQuietly(Runnable runnable) {
+            if (backpressure == null) {
+                tasks.offer(runnable);
+            } else {
+                enqueue(runnable);
+            }
+        }
 
-            if (!tasks.isEmpty()) {
+        void wakeUp() {
+            // offer() is a volatile write, thus either this read sees sleeping or the worker sees the task
+            if (sleeping) {
                 log.debug("{} - awaking worker", this);
+                LockSupport.unpark(runner);
+            }
+        }
+
+        private boolean offerBounded(Runnable runnable, boolean ordered) {
+            while (true) {
+                int count = pending.get();
+                if (!backpressure.hasRoom(count)) {
+                    if (backpressure.onOverflow(tasks, pending, runnable, ordered)) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (pending.compareAndSet(count, count + 1)) {
+                    break;
+                }
+            }
+            offer(runnable);
+            backpressure.onEnqueued();
+            return true;
+        }
+
+        /**
+         * Enqueues a control task or an exempt one regardless of the pending tasks limits.
+         */
+        void enqueueSignal(Runnable signal) {
+            if (backpressure != null) {
+                pending.incrementAndGet();
+                backpressure.onEnqueued();
+            }
+            offer(signal);
+            if (sleeping) {
+                LockSupport.unpark(runner);
+            }
+        }
+
+        // a ring might be full for a moment, as signals overshoot the pending tasks limit
+        private void offer(Runnable runnable) {
+            while (!tasks.offer(runnable)) {
+                Thread.yield();
+            }
+        }
+
+        void runAfter(Barrier barrier, Runnable task) {
+            synchronized (deferred) {
+                ArrayDeque<Runnable> waiting = deferred.get(barrier);
+                if (waiting != null) {
+                    waiting.add(task);
+                    return;
+                }
+                if (!barrier.passed) {
+                    waiting = new ArrayDeque<>();
+                    waiting.add(task);
+                    deferred.put(barrier, waiting);
+                    return;
+                }
             }
+            task.run();
+        }
 
-            synchronized (lock) {
-                lock.notifyAll();
+        void release(Barrier barrier) {
+            while (!halted) {
+                Runnable task;
+                synchronized (deferred) { // the tasks not run yet stay there to be handed back by halt
+                    ArrayDeque<Runnable> waiting = deferred.get(barrier);
+                    if (waiting == null) {
+                        return;
+                    }
+                    task = waiting.poll();
+                    if (waiting.isEmpty()) {
+                        deferred.remove(barrier);
+                    }
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    log.error("Error executing task", e);
+                }
+            }
+        }
+
+        void stopWhenDrained() {
+            stopping = true;
+            Thread runner = this.runner;
+            if (runner != null) {
+                LockSupport.unpark(runner);
+            }
+        }
+
+        /**
+         * Stops taking tasks and moves the queued ones but control tasks to abandoned.
+         */
+        void halt(List<Runnable> abandoned) {
+            halted = true;
+            synchronized (deferred) { // held back before the queued ones
+                for (ArrayDeque<Runnable> waiting : deferred.values()) {
+                    abandoned.addAll(waiting);
+                }
+                deferred.clear();
+            }
+            List<Runnable> queued = new ArrayList<>();
+            if (tasks instanceof PriorityLaneQueue) {
+                ((PriorityLaneQueue) tasks).drainTo(queued); // its poll() is the worker's
+            } else {
+                for (Runnable task; (task = tasks.poll()) != null; ) {
+                    queued.add(task);
+                }
+            }
+            for (Runnable task : queued) {
+                if (!(task instanceof Backpressure.Undroppable)) {
+                    abandoned.add(task);
+                }
             }
+        }
 
-            return f;
+        @Override
+        public void park(long nanos) {
+            sleeping = true;
+            try {
+                if (tasks.isEmpty()) {
+                    log.debug("{} - worker is sleeping. No work to do", this);
+                    if (nanos == 0) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, nanos);
+                    }
+                }
+            } finally {
+                sleeping = false;
+            }
         }
 
         @Override
         public void run() {
+            runner = Thread.currentThread();
             try {
-                while (true) {
-                    synchronized (lock) {
-                        log.debug("{} - worker is sleeping. No work to do");
-
-                        if (tasks.isEmpty()) {
-                            while (true) {
-                                lock.wait(1000);
-                                if (!tasks.isEmpty()) {
-                                    break;
-                                }
-                            }
-                        }
-                    }
+                int idleCount = 0;
+                while (!halted) {
+                    Runnable task = tasks.poll();
 
-                    do {
-                        Runnable task = tasks.poll();
-                        try {
-                            log.debug("{} - start task execution: {}", this, task);
-                            task.run();
-                            log.debug("{} - completed task execution: {}", this, task);
-                        } catch (Throwable e) {
-                            log.error("Error executing task", e);
+                    if (task == null) {
+                        if (stopping) {
+                            log.info("{} - Drained", this);
+                            return;
+                        }
+                        if (Thread.currentThread().isInterrupted()) {
+                            log.info("{} - Interrupted", this);
+                            return;
+                        }
+                        if (idleCount < Integer.MAX_VALUE) {
+                            idleCount++;
                         }
-                    } while (!tasks.isEmpty());
+                        waitStrategy.idle(idleCount, this);
+                        continue;
+                    }
 
+                    idleCount = 0;
+                    try {
+                        log.debug("{} - start task execution: {}", this, task);
+                        task.run();
+                        log.debug("{} - completed task execution: {}", this, task);
+                    } catch (Throwable e) {
+                        log.error("Error executing task", e);
+                    }
+                    if (backpressure != null) {
+                        pending.decrementAndGet();
+                        backpressure.onCompleted();
+                    }
                 }
-            } catch (InterruptedException e) {
-                log.info("{} - Interrupted", this);
             } catch (Throwable e) {
                 log.info("{} - ", this, e);
             } finally {
                 log.warn("{} - Ended", this);
-                // Thread is about to end for some reason
-                synchronized (lock) {
+                if (stopping || halted) {
+                    terminated.complete(null);
+                } else {
+                    // Thread is about to end for some reason
                     listener.notifyOnThreadCompleted(workerIndex);
                 }
             }
         }
     }
 
-    private static class RunnableTask implements Runnable {
+    private static class RunnableTask<T> extends CompletableFuture<T> implements Runnable {
 
-        private Runnable task;
-        private String dispatchId; // TODO for listeners
-        private CompletableFuture<Void> f;
+        private Runnable task; // null if the result is supplied
+        private Supplier<T> supplier;
 
-        public RunnableTask(String dispatchId, Runnable task, CompletableFuture<Void> f) {
+        public RunnableTask(Runnable task) {
             this.task = task;
-            this.dispatchId = dispatchId;
-            this.f = f;
+        }
+
+        public RunnableTask(Supplier<T> supplier) {
+            this.supplier = supplier;
         }
 
         @Override
         public void run() {
-            task.run();
-            f.complete(null);
+            if (isDone()) { // cancelled while queued
+                return;
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                    complete(null);
+                } else {
+                    complete(supplier.get());
+                }
+            } catch (Throwable t) {
+                completeExceptionally(t);
+                throw t;
+            }
         }
     }
 }
@@ -0,0 +1,297 @@
+package vibneiro.dispatchers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical hashed timing wheel (Varghese, Lauck), a single daemon thread shared by all dispatchers.
+ */
+@ThreadSafe
+final class TimerWheel implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int ROOT_BITS = 8;
+    private static final int LEVEL_BITS = 6;
+    private static final int ROOT_SIZE = 1 << ROOT_BITS;
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+    private static final int LEVELS = 4; // above the root wheel
+    private static final long MAX_TICKS = (1L << (ROOT_BITS + LEVELS * LEVEL_BITS)) - 1;
+
+    private static final class Shared {
+        private static final TimerWheel WHEEL = new TimerWheel(System.nanoTime());
+
+        static {
+            Thread thread = new CountingThreadFactory(true, "dispatcher-timer-").newThread(WHEEL);
+            WHEEL.runner = thread;
+            thread.start();
+        }
+    }
+
+    private final long startNanos;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread runner;
+    // producers unpark the thread only while it is parked for lack of timeouts
+    private volatile boolean idle;
+
+    // accessed by the timer thread only
+    private final Timeout[] root = new Timeout[ROOT_SIZE]; // sentinels of circular lists
+    private final Timeout[][] levels = new Timeout[LEVELS][LEVEL_SIZE];
+    private long nextTick; // the first tick not expired yet
+    private long sequence;
+    private int linked; // timeouts in the wheels
+
+    TimerWheel(long startNanos) {
+        this.startNanos = startNanos;
+        for (int i = 0; i < ROOT_SIZE; i++) {
+            root[i] = Timeout.sentinel();
+        }
+        for (Timeout[] level : levels) {
+            for (int i = 0; i < LEVEL_SIZE; i++) {
+                level[i] = Timeout.sentinel();
+            }
+        }
+    }
+
+    /**
+     * @return the wheel shared by all dispatchers, its thread is started on first use
+     */
+    static TimerWheel shared() {
+        return Shared.WHEEL;
+    }
+
+    /**
+     * Runs the task by the timer thread once the delay elapses, no earlier than that and about a tick later.
+     * The task must not block, as it would hold up the timeouts of all dispatchers.
+     * @param delayNanos zero or negative to run the task on the next tick
+     */
+    Timeout schedule(Runnable task, long delayNanos) {
+        return schedule(task, delayNanos, System.nanoTime());
+    }
+
+    Timeout schedule(Runnable task, long delayNanos, long nowNanos) {
+        long elapsed = Math.max(0, nowNanos - startNanos);
+        long delay = Math.max(0, delayNanos);
+        // rounded up, so that the timeout never expires early
+        Timeout timeout = new Timeout(this, task, (elapsed + delay + TICK_NANOS - 1) / TICK_NANOS);
+        pending.incrementAndGet();
+        scheduled.offer(timeout);
+        // offer() is a volatile write, thus either this read sees idle or the thread sees the timeout
+        if (idle) {
+            LockSupport.unpark(runner);
+        }
+        return timeout;
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled
+     */
+    int size() {
+        return pending.get();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                long now = System.nanoTime();
+                advance(now);
+                if (pending.get() == 0) {
+                    idle = true;
+                    try {
+                        if (scheduled.isEmpty()) {
+                            LockSupport.park(this);
+                        }
+                    } finally {
+                        idle = false;
+                    }
+                } else {
+                    LockSupport.parkNanos(this, TICK_NANOS - (now - startNanos) % TICK_NANOS);
+                }
+            } catch (Throwable t) {
+                log.error("Timer wheel failed to advance", t);
+            }
+        }
+    }
+
+    /**
+     * Expires the timeouts due by the time, run by the timer thread.
+     */
+    void advance(long nowNanos) {
+        long now = Math.max(0, nowNanos - startNanos) / TICK_NANOS;
+        for (Timeout timeout; (timeout = cancelled.poll()) != null; ) {
+            if (timeout.unlink()) {
+                linked--;
+            }
+        }
+        if (linked == 0 && nextTick < now) { // nothing to expire on the way, e.g. after parking
+            nextTick = now;
+        }
+        for (Timeout timeout; (timeout = scheduled.poll()) != null; ) {
+            if (!timeout.isCancelled()) {
+                timeout.sequence = sequence++;
+                add(timeout);
+                linked++;
+            }
+        }
+
+        List<Timeout> expired = new ArrayList<>();
+        while (nextTick <= now) {
+            int index = (int) nextTick & (ROOT_SIZE - 1);
+            // a lap of the finer wheel is completed, the coarser one steps
+            for (int level = 0; index == 0 && level < LEVELS; level++) {
+                index = (int) (nextTick >>> (ROOT_BITS + level * LEVEL_BITS)) & (LEVEL_SIZE - 1);
+                cascade(levels[level][index]);
+            }
+            Timeout slot = root[(int) nextTick & (ROOT_SIZE - 1)];
+            nextTick++;
+            while (slot.next != slot) {
+                Timeout timeout = slot.next;
+                timeout.unlink();
+                linked--;
+                expired.add(timeout);
+            }
+            if (!expired.isEmpty()) {
+                expire(expired);
+                expired.clear();
+            }
+        }
+    }
+
+    private void add(Timeout timeout) {
+        long deadline = timeout.deadline;
+        long ticks = deadline - nextTick;
+        Timeout slot;
+        if (ticks < 0) { // due already
+            slot = root[(int) nextTick & (ROOT_SIZE - 1)];
+        } else if (ticks < ROOT_SIZE) {
+            slot = root[(int) deadline & (ROOT_SIZE - 1)];
+        } else {
+            if (ticks > MAX_TICKS) { // parked in the farthest slot, put back on every lap
+                deadline = nextTick + MAX_TICKS;
+            }
+            int level = (63 - Long.numberOfLeadingZeros(deadline - nextTick) - ROOT_BITS) / LEVEL_BITS;
+            slot = levels[level][(int) (deadline >>> (ROOT_BITS + level * LEVEL_BITS)) & (LEVEL_SIZE - 1)];
+        }
+        timeout.linkBefore(slot);
+    }
+
+    private void cascade(Timeout slot) {
+        while (slot.next != slot) {
+            Timeout timeout = slot.next;
+            timeout.unlink();
+            add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> expired) {
+        // cascaded timeouts join a slot after the ones scheduled later right into it
+        expired.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for (Timeout timeout : expired) {
+            if (timeout.expire()) {
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    log.warn("Exception thrown when running a timeout task", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadline; // in ticks
+        private volatile int state = PENDING;
+        // accessed by the timer thread only
+        private long sequence;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        private static Timeout sentinel() {
+            Timeout sentinel = new Timeout(null, null, 0);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+
+        /**
+         * @return false if the task has run or is about to
+         */
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private boolean expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            return true;
+        }
+
+        private void linkBefore(Timeout sentinel) {
+            prev = sentinel.prev;
+            next = sentinel;
+            prev.next = this;
+            sentinel.prev = this;
+        }
+
+        /**
+         * @return false if not added yet or unlinked already
+         */
+        private boolean unlink() {
+            if (next == null) {
+                return false;
+            }
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+            return true;
+        }
+    }
+}
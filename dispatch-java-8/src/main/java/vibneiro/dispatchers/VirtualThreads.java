@@ -0,0 +1,55 @@
+package vibneiro.dispatchers;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (JDK 21+) looked up reflectively, as the dispatchers are built for JDK 8.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException - if the JVM has no virtual threads
+     */
+    static void checkSupported() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21+, running on "
+                    + System.getProperty("java.version"));
+        }
+    }
+
+    /**
+     * @return executor starting a new virtual thread per task, named prefix + number
+     * @throws UnsupportedOperationException - if the JVM has no virtual threads
+     */
+    static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21+, running on "
+                    + System.getProperty("java.version"), e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create a virtual thread executor", e);
+        }
+    }
+}
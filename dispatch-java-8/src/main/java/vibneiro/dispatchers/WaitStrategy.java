@@ -0,0 +1,24 @@
+package vibneiro.dispatchers;
+
+/**
+ * Defines how a worker thread of {@link ThreadBoundHashDispatcher} waits for tasks once its queue is empty.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Invoked by a worker thread each time it finds its queue empty. May return spuriously.
+     * @param idleCount number of empty polls in a row, starting from 1
+     * @param parker    parks the worker thread until a task is enqueued
+     */
+    void idle(int idleCount, Parker parker);
+
+    interface Parker {
+
+        /**
+         * Parks the worker thread until a task is enqueued, the timeout elapses or the thread is interrupted.
+         * Producers signal the worker only while it is parked.
+         * @param nanos timeout, 0 means no timeout
+         */
+        void park(long nanos);
+    }
+}
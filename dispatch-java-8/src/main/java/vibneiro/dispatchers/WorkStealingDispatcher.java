@@ -3,15 +3,29 @@ package vibneiro.dispatchers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vibneiro.idgenerators.IdGenerator;
-import vibneiro.idgenerators.time.SystemDateSource;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author: Ivan Voroshilin
@@ -28,20 +42,64 @@ import java.util.concurrent.locks.ReentrantLock;
  * Cache eviction is managed by weakReference values  on reaching a threshold = cache size.
  * In this case, an attempt is made to evict entries having garbage-collected values.
  *
+ * Sampled LRU eviction (optional): completed entries are sampled and evicted least recently dispatched first.
+ *
+ * Eviction on completion (optional): the last task of a chain removes its own entry.
+ *
+ * Mailbox queues (optional): each dispatchId owns a lock-free {@link DispatchQueue} instead of a futures chain.
+ *
+ * Priority lanes (optional): tasks are submitted through {@link PriorityLanes}.
+ *
+ * Virtual threads (optional, JDK 21+): mailboxes are drained by a virtual-thread-per-task executor.
+ *
+ * Long dispatchIds always go to mailbox queues, 42L and "42" are two distinct queues.
+ *
  */
 @ThreadSafe
 public class WorkStealingDispatcher implements Dispatcher {
 
     private static final Logger log = LoggerFactory.getLogger(WorkStealingDispatcher.class);
 
+    // drain a dispatchId until its queue is empty
+    private static final int DEFAULT_THROUGHPUT = Integer.MAX_VALUE;
+    // completed entries compared per eviction
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final Comparator<ChainEntry> LEAST_RECENTLY_DISPATCHED =
+            (a, b) -> Long.signum(a.lastDispatchNanos - b.lastDispatchNanos);
+
     private ExecutorService service;
 
-    private IdGenerator idGenerator = new IdGenerator("ID_", new SystemDateSource());
+    private IdGenerator idGenerator; // null: tasks without a dispatchId get no id
+    private Executor executor; // the service, behind priority lanes if any
+    private PriorityLanes lanes; // null without priority lanes
+    private int[] priorityWeights;
+
     private boolean unBoundedCache = false;
     private int queueSize = 1000;
     private int threadsCount = Runtime.getRuntime().availableProcessors();
-    private ConcurrentMap<String, WeakReferenceByValue<CompletableFuture<Void>>> cachedDispatchQueues;
-    private ReferenceQueue<CompletableFuture<Void>> valueReferenceQueue;
+    private ConcurrentMap<String, WeakReferenceByValue<CompletableFuture<?>>> cachedDispatchQueues;
+    private ReferenceQueue<CompletableFuture<?>> valueReferenceQueue;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.WEAK_REFERENCES;
+    private long expireAfterIdleNanos = Long.MAX_VALUE;
+    private ConcurrentMap<String, ChainEntry> chains;
+    @GuardedBy("evictionScheduled")
+    private Iterator<ChainEntry> evictionSweep = Collections.emptyIterator();
+    @GuardedBy("evictionScheduled")
+    private final ChainEntry[] evictionSample = new ChainEntry[EVICTION_SAMPLE_SIZE];
+    private volatile long lastExpirationNanos = System.nanoTime();
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private boolean mailboxQueues = false;
+    private boolean virtualThreads = false;
+    private int throughput = DEFAULT_THROUGHPUT;
+    private int maxPendingTasksPerKey = Integer.MAX_VALUE;
+    private int maxPendingTasks = Integer.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private final OverflowStats overflowStats = new OverflowStats();
+    private final BlockingStats blockingStats = new BlockingStats();
+    private Backpressure backpressure;
+    private ConcurrentMap<String, DispatchQueue> dispatchQueues;
+    private LongDispatchQueueMap longDispatchQueues;
+    private final AtomicBoolean pruneScheduled = new AtomicBoolean();
     private final Lock evictionLock = new ReentrantLock();
 
     private volatile boolean started;
@@ -64,6 +122,10 @@ public class WorkStealingDispatcher implements Dispatcher {
             return this;
         }
 
+        /**
+         * Tasks without a dispatchId are dispatched under ids of the generator,
+         * by default they go straight to the executor.
+         */
         public Builder setIdGenerator(IdGenerator idGenerator) {
             WorkStealingDispatcher.this.idGenerator = idGenerator;
             return this;
@@ -80,7 +142,116 @@ public class WorkStealingDispatcher implements Dispatcher {
         }
 
         public Builder unBoundedCache() {
-            WorkStealingDispatcher.this.unBoundedCache = unBoundedCache;
+            WorkStealingDispatcher.this.unBoundedCache = true;
+            return this;
+        }
+
+        /**
+         * How completed dispatchIds are evicted from the cache, {@link EvictionPolicy#WEAK_REFERENCES} by default.
+         */
+        public Builder setEvictionPolicy(EvictionPolicy evictionPolicy) {
+            WorkStealingDispatcher.this.evictionPolicy = evictionPolicy;
+            return this;
+        }
+
+        /**
+         * Completed dispatchIds not dispatched for the duration are evicted even if the cache size is not reached.
+         * Implies {@link EvictionPolicy#SAMPLED_LRU}.
+         */
+        public Builder setExpireAfterIdle(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("duration must be positive: " + duration);
+            }
+            WorkStealingDispatcher.this.expireAfterIdleNanos = unit.toNanos(duration);
+            WorkStealingDispatcher.this.evictionPolicy = EvictionPolicy.SAMPLED_LRU;
+            return this;
+        }
+
+        /**
+         * Tasks run on virtual threads, a thread per drain of a dispatchId, thus blocking tasks (JDBC, file I/O) scale
+         * with the number of dispatchIds instead of starving the ForkJoinPool. Implies {@link #mailboxQueues()}:
+         * a mailbox holds no monitor while running tasks, thus the dispatcher does not pin carrier threads, though
+         * a task blocking inside synchronized does. The executor is created on start, it cannot be combined with
+         * {@link #setExecutorService(ExecutorService)}.
+         * @throws UnsupportedOperationException - if the JVM has no virtual threads, i.e. before JDK 21
+         */
+        public Builder virtualThreads() {
+            VirtualThreads.checkSupported();
+            WorkStealingDispatcher.this.virtualThreads = true;
+            WorkStealingDispatcher.this.mailboxQueues = true;
+            return this;
+        }
+
+        /**
+         * Tasks of each dispatchId are put into a lock-free mailbox instead of a chain of futures.
+         */
+        public Builder mailboxQueues() {
+            WorkStealingDispatcher.this.mailboxQueues = true;
+            return this;
+        }
+
+        /**
+         * Ready tasks wait in a lane per {@link Priority}, the lanes are served by weighted round robin,
+         * 8:4:1 by default.
+         */
+        public Builder priorityLanes() {
+            if (WorkStealingDispatcher.this.priorityWeights == null) {
+                WorkStealingDispatcher.this.priorityWeights = PriorityLanes.DEFAULT_WEIGHTS.clone();
+            }
+            return this;
+        }
+
+        /**
+         * Shares of executor threads taken by HIGH, NORMAL and BULK lanes when all of them have tasks.
+         * Implies {@link #priorityLanes()}.
+         */
+        public Builder setPriorityWeights(int high, int normal, int bulk) {
+            WorkStealingDispatcher.this.priorityWeights = PriorityLanes.weights(high, normal, bulk);
+            return this;
+        }
+
+        /**
+         * Max number of tasks of a dispatchId run per executor submission before the thread is yielded to other
+         * dispatchIds. Implies {@link #mailboxQueues()}.
+         */
+        public Builder setThroughput(int throughput) {
+            if (throughput <= 0) {
+                throw new IllegalArgumentException("throughput must be positive: " + throughput);
+            }
+            WorkStealingDispatcher.this.throughput = throughput;
+            WorkStealingDispatcher.this.mailboxQueues = true;
+            return this;
+        }
+
+        /**
+         * Limits the number of queued and running tasks of a dispatchId. Implies {@link #mailboxQueues()}.
+         */
+        public Builder setMaxPendingTasksPerKey(int maxPendingTasksPerKey) {
+            if (maxPendingTasksPerKey <= 0) {
+                throw new IllegalArgumentException("maxPendingTasksPerKey must be positive: " + maxPendingTasksPerKey);
+            }
+            WorkStealingDispatcher.this.maxPendingTasksPerKey = maxPendingTasksPerKey;
+            WorkStealingDispatcher.this.mailboxQueues = true;
+            return this;
+        }
+
+        /**
+         * Limits the number of queued and running tasks of all dispatchIds. Implies {@link #mailboxQueues()}.
+         */
+        public Builder setMaxPendingTasks(int maxPendingTasks) {
+            if (maxPendingTasks <= 0) {
+                throw new IllegalArgumentException("maxPendingTasks must be positive: " + maxPendingTasks);
+            }
+            WorkStealingDispatcher.this.maxPendingTasks = maxPendingTasks;
+            WorkStealingDispatcher.this.mailboxQueues = true;
+            return this;
+        }
+
+        /**
+         * What to do with a task once a pending tasks limit is reached, {@link OverflowPolicy#REJECT} by default.
+         */
+        public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            WorkStealingDispatcher.this.overflowPolicy = overflowPolicy;
             return this;
         }
 
@@ -89,35 +260,128 @@ public class WorkStealingDispatcher implements Dispatcher {
         }
     }
 
+    /**
+     * Unless an id generator is set, the task is run by the executor without touching the cache, as a unique
+     * dispatchId would never be reused.
+     * Falls back to a mailbox of its own if pending tasks are limited, so that the limits are applied.
+     */
     @Override
     public CompletableFuture<Void> dispatchAsync(Runnable task) {
-        return dispatchAsync(idGenerator.nextId(), task);
+
+        if (idGenerator != null) {
+            return dispatchAsync(idGenerator.nextId(), task);
+        }
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a task");
+        }
+
+        if (backpressure != null) {
+            CompletableTask completableTask = new CompletableTask(task);
+            new DispatchQueue(executor, throughput, backpressure, false).enqueue(completableTask);
+            return completableTask;
+        }
+
+        return CompletableFuture.runAsync(task, executor);
     }
 
     @Override
     public CompletableFuture<Void> dispatchAsync(String dispatchId, Runnable task) {
+        return dispatchAsync(dispatchId, Priority.NORMAL, task);
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(String dispatchId, Priority priority, Runnable task) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+
+        if (mailboxQueues) {
+            CompletableTask completableTask = new CompletableTask(task);
+            dispatchToQueue(dispatchId, priority, completableTask);
+            return completableTask;
+        }
+
+        return dispatchToChain(dispatchId, task, null, executorOf(priority));
+    }
+
+    /**
+     * Futures chains: the task is chained by thenApplyAsync, thus the future of its result is the chain link itself.
+     */
+    @Override
+    public <T> CompletableFuture<T> submitAsync(String dispatchId, Supplier<T> supplier) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+
+        if (mailboxQueues) {
+            SupplyingTask<T> supplyingTask = new SupplyingTask<>(supplier);
+            dispatchToQueue(dispatchId, Priority.NORMAL, supplyingTask);
+            return supplyingTask;
+        }
+
+        return dispatchToChain(dispatchId, null, supplier, executorOf(Priority.NORMAL));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> submitAsync(long dispatchId, Supplier<T> supplier) {
 
         if(stopped) {
             throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
         }
 
+        SupplyingTask<T> supplyingTask = new SupplyingTask<>(supplier);
+        dispatchToQueue(dispatchId, Priority.NORMAL, supplyingTask);
+        return supplyingTask;
+    }
+
+    /**
+     * A batch costs a compute or a mailbox enqueue per dispatchId rather than per task: the tasks of a dispatchId are
+     * dispatched as a single task.
+     */
+    @Override
+    public CompletableFuture<Void> dispatchAllAsync(Collection<KeyedTask> tasks) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch a batch");
+        }
+
+        DispatchBatch batch = DispatchBatch.of(tasks);
+        for (DispatchBatch.Group group : batch.groups()) {
+            try {
+                if (group.hasLongDispatchId()) {
+                    dispatch(group.longDispatchId(), group);
+                } else {
+                    dispatch(group.dispatchId(), group);
+                }
+            } catch (RejectedExecutionException e) { // the overflow policy or stopped meanwhile
+                group.completeExceptionally(e);
+            }
+        }
+        return batch.future();
+    }
+
+    /**
+     * Chains either the task or the supplier after the previous task of the dispatchId.
+     */
+    private <T> CompletableFuture<T> dispatchToChain(String dispatchId, Runnable task, Supplier<T> supplier,
+                                                     Executor chainExecutor) {
+
+        if (evictionPolicy != EvictionPolicy.WEAK_REFERENCES) {
+            return dispatchToEvictableChain(dispatchId, task, supplier, chainExecutor);
+        }
+
         try {
             @SuppressWarnings("unchecked")
-            CompletableFuture[] value = new CompletableFuture[1]; // magic with a strong ref
+            CompletableFuture<T>[] value = new CompletableFuture[1]; // magic with a strong ref
 
             // compute is atomic by the contract
             cachedDispatchQueues.compute(dispatchId, (key, queueReference) -> {
-
-                if (queueReference == null) { // First time for this dispatchId before eviction
-                    value[0] = CompletableFuture.runAsync(task, service);
-                } else {
-                    value[0] = queueReference.get();
-                    if (value[0] != null) {
-                        value[0] = value[0].thenRunAsync(task, service);
-                    } else { // The value has been GC-ed, thus WeakReference.get() is null
-                        value[0] = CompletableFuture.runAsync(task, service);
-                    }
-                }
+                // null the first time for this dispatchId before eviction, or once the value has been GC-ed
+                CompletableFuture<?> previous = queueReference != null ? queueReference.get() : null;
+                value[0] = link(previous, task, supplier, chainExecutor);
                 return new WeakReferenceByValue<>(dispatchId, value[0], valueReferenceQueue);
             });
 
@@ -130,6 +394,315 @@ public class WorkStealingDispatcher implements Dispatcher {
         }
     }
 
+    /**
+     * @param previous null to start a chain
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> link(CompletableFuture<?> previous, Runnable task, Supplier<T> supplier,
+                                                 Executor chainExecutor) {
+        if (task != null) {
+            return (CompletableFuture<T>) (previous == null
+                    ? CompletableFuture.runAsync(task, chainExecutor)
+                    : previous.thenRunAsync(task, chainExecutor));
+        }
+        return previous == null
+                ? CompletableFuture.supplyAsync(supplier, chainExecutor)
+                : previous.thenApplyAsync(previousResult -> supplier.get(), chainExecutor);
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(long dispatchId, Runnable task) {
+        return dispatchAsync(dispatchId, Priority.NORMAL, task);
+    }
+
+    @Override
+    public CompletableFuture<Void> dispatchAsync(long dispatchId, Priority priority, Runnable task) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+
+        CompletableTask completableTask = new CompletableTask(task);
+        dispatchToQueue(dispatchId, priority, completableTask);
+        return completableTask;
+    }
+
+    private Executor executorOf(Priority priority) {
+        return lanes != null ? lanes.lane(priority) : service;
+    }
+
+    /**
+     * Same as {@link #dispatchAsync(String, Runnable)} for a task blocking on I/O or locks: the task runs inside
+     * {@link ForkJoinPool#managedBlock}, thus the ForkJoinPool compensates for the blocked worker with another
+     * thread and CPU-bound tasks keep running. Has no effect on executors other than ForkJoinPool.
+     */
+    public CompletableFuture<Void> dispatchBlockingAsync(String dispatchId, Runnable task) {
+        return dispatchAsync(dispatchId, new ManagedBlockingTask(task, blockingStats));
+    }
+
+    /**
+     * See {@link #dispatchBlockingAsync(String, Runnable)}.
+     */
+    public CompletableFuture<Void> dispatchBlockingAsync(long dispatchId, Runnable task) {
+        return dispatchAsync(dispatchId, new ManagedBlockingTask(task, blockingStats));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> dispatchToEvictableChain(String dispatchId, Runnable task, Supplier<T> supplier,
+                                                              Executor chainExecutor) {
+
+        boolean removeOnCompletion = evictionPolicy == EvictionPolicy.ON_COMPLETION;
+        try {
+            long now = removeOnCompletion ? 0 : System.nanoTime();
+            // compute is atomic by the contract
+            return (CompletableFuture<T>) chains.compute(dispatchId, (key, chain) -> {
+                if (!removeOnCompletion) {
+                    ChainEntry next = new ChainEntry(key, now, null, null);
+                    next.tail = link(chain == null ? null : chain.tail, task, supplier, chainExecutor);
+                    return next;
+                }
+                ChainEntry next = new ChainEntry(key, now, task, supplier);
+                // every task must run to remove its entry, thus a failed task does not skip the following ones
+                next.tail = (chain == null)
+                        ? CompletableFuture.supplyAsync(next, chainExecutor)
+                        : chain.tail.handleAsync(next, chainExecutor);
+                return next;
+            }).tail;
+        } catch(Throwable t) {
+            log.warn("Exception thrown when calling dispatchToChain for dispatchId[{}]", dispatchId, t);
+            throw t;
+        } finally {
+            if (!removeOnCompletion) {
+                tryToEvictChains();
+            }
+        }
+    }
+
+    private void tryToEvictChains() {
+        if (((!unBoundedCache) && chains.size() > queueSize || System.nanoTime() - lastExpirationNanos > expireAfterIdleNanos)
+                && evictionScheduled.compareAndSet(false, true)) {
+            try {
+                service.execute(this::evictChains);
+            }
+            catch(Throwable t) {
+                evictionScheduled.set(false);
+                log.warn("Exception thrown when submitting evictChains:task", t);
+            }
+        }
+    }
+
+    private void evictChains() {
+        try {
+            long now = System.nanoTime();
+            if (now - lastExpirationNanos > expireAfterIdleNanos) {
+                lastExpirationNanos = now;
+                expireIdleChains(now);
+            }
+            if (!unBoundedCache) {
+                evictLeastRecentlyDispatchedChains();
+            }
+        } finally {
+            evictionScheduled.set(false);
+        }
+    }
+
+    @GuardedBy("evictionScheduled")
+    private void expireIdleChains(long now) {
+        for (ChainEntry chain : chains.values()) {
+            if (chain.tail.isDone() && now - chain.lastDispatchNanos > expireAfterIdleNanos) {
+                removeChain(chain);
+            }
+        }
+    }
+
+    @GuardedBy("evictionScheduled")
+    private void evictLeastRecentlyDispatchedChains() {
+        int overflow;
+        while ((overflow = chains.size() - queueSize) > 0) {
+            int sampled = 0;
+            // a weakly consistent iterator resumed across evictions, running chains are skipped
+            for (int scanned = 0, size = chains.size(); sampled < EVICTION_SAMPLE_SIZE && scanned <= size; scanned++) {
+                if (!evictionSweep.hasNext()) {
+                    evictionSweep = chains.values().iterator();
+                    if (!evictionSweep.hasNext()) {
+                        break;
+                    }
+                }
+                ChainEntry chain = evictionSweep.next();
+                if (chain.tail.isDone()) {
+                    evictionSample[sampled++] = chain;
+                }
+            }
+            if (sampled == 0) { // all chains are running
+                return;
+            }
+            // the older half of the sample goes, a single victim per sample would not keep up with a stream of new keys
+            Arrays.sort(evictionSample, 0, sampled, LEAST_RECENTLY_DISPATCHED);
+            for (int i = 0, victims = Math.min(overflow, (sampled + 1) / 2); i < victims; i++) {
+                removeChain(evictionSample[i]);
+            }
+            Arrays.fill(evictionSample, null);
+        }
+    }
+
+    private void removeChain(ChainEntry chain) {
+        // fails if the dispatchId has been dispatched again in the meantime
+        if (chains.remove(chain.dispatchId, chain)) {
+            log.debug("[Cache eviction] Removed dispatchId [{}] from the cache", chain.dispatchId);
+        }
+    }
+
+    /**
+     * With mailbox queues, the task is enqueued as is. Otherwise, futures are the queue itself.
+     */
+    @Override
+    public void dispatch(String dispatchId, Runnable task) {
+        dispatch(dispatchId, Priority.NORMAL, task);
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Runnable task) {
+        dispatch(dispatchId, Priority.NORMAL, task);
+    }
+
+    @Override
+    public void dispatch(String dispatchId, Priority priority, Runnable task) {
+
+        if (!mailboxQueues) {
+            dispatchAsync(dispatchId, priority, task);
+            return;
+        }
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+
+        dispatchToQueue(dispatchId, priority, task);
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Priority priority, Runnable task) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot dispatch dispatchId = " + dispatchId);
+        }
+
+        dispatchToQueue(dispatchId, priority, task);
+    }
+
+    @Override
+    public void dispatch(String dispatchId, Runnable task, MessageCompletedListener listener) {
+        dispatch(dispatchId, new ListenedTask(task, listener));
+    }
+
+    @Override
+    public void dispatch(long dispatchId, Runnable task, MessageCompletedListener listener) {
+        dispatch(dispatchId, new ListenedTask(task, listener));
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAsync(String dispatchId, Runnable task, Duration delay) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+        }
+
+        return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAsync(long dispatchId, Runnable task, Duration delay) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+        }
+
+        return ScheduledTask.once(scheduled -> dispatch(dispatchId, scheduled), task, delay);
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAtFixedRateAsync(String dispatchId, Runnable task, Duration initialDelay,
+                                                            Duration period) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+        }
+
+        return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+    }
+
+    @Override
+    public CompletableFuture<Void> scheduleAtFixedRateAsync(long dispatchId, Runnable task, Duration initialDelay,
+                                                            Duration period) {
+
+        if(stopped) {
+            throw new RejectedExecutionException("Dispatcher is stopped, cannot schedule dispatchId = " + dispatchId);
+        }
+
+        return ScheduledTask.atFixedRate(scheduled -> dispatch(dispatchId, scheduled), task, initialDelay, period);
+    }
+
+    private void dispatchToQueue(long dispatchId, Priority priority, Runnable task) {
+        try {
+            longDispatchQueues.enqueue(dispatchId, priority, task);
+        } catch(Throwable t) {
+            log.warn("Exception thrown when calling dispatchToQueue for dispatchId[{}]", dispatchId, t);
+            throw t;
+        }
+    }
+
+    private void dispatchToQueue(String dispatchId, Priority priority, Runnable task) {
+
+        try {
+            while (true) {
+                DispatchQueue queue = dispatchQueues.get(dispatchId); // lock-free on a hit
+                if (queue == null) {
+                    queue = dispatchQueues.computeIfAbsent(dispatchId, key -> new DispatchQueue(executor, throughput, backpressure));
+                }
+                if (queue.enqueue(task, priority)) {
+                    return;
+                }
+                // The queue has been retired by eviction in the meantime
+                dispatchQueues.remove(dispatchId, queue);
+            }
+        } catch(Throwable t) {
+            log.warn("Exception thrown when calling dispatchToQueue for dispatchId[{}]", dispatchId, t);
+            throw t;
+        } finally {
+            tryToPruneQueues();
+        }
+    }
+
+    private void tryToPruneQueues() {
+        if ((!unBoundedCache) && dispatchQueues.size() > queueSize && pruneScheduled.compareAndSet(false, true)) {
+            try {
+                service.execute(this::retireIdleQueues);
+            }
+            catch(Throwable t) {
+                pruneScheduled.set(false);
+                log.warn("Exception thrown when submitting retireIdleQueues:task", t);
+            }
+        }
+    }
+
+    private void retireIdleQueues() {
+        try {
+            for (Map.Entry<String, DispatchQueue> entry : dispatchQueues.entrySet()) {
+
+                if (dispatchQueues.size() <= queueSize) {
+                    return;
+                }
+
+                if (entry.getValue().tryRetire()) {
+                    dispatchQueues.remove(entry.getKey(), entry.getValue());
+                    log.debug("[Cache eviction] Removed dispatchId [{}] from the cache", entry.getKey());
+                }
+            }
+        } finally {
+            pruneScheduled.set(false);
+        }
+    }
+
     private boolean shouldPruneCache() {
         return (!unBoundedCache) && cachedDispatchQueues.size() > queueSize;
     }
@@ -155,12 +728,12 @@ public class WorkStealingDispatcher implements Dispatcher {
             return;
         }
 
-        Reference<? extends CompletableFuture<Void>> valueRef;
+        Reference<? extends CompletableFuture<?>> valueRef;
 
         while ((valueRef = valueReferenceQueue.poll()) != null) { // get GC-ed valueReference
 
             @SuppressWarnings("unchecked")
-            WeakReferenceByValue<CompletableFuture<Void>> ref = (WeakReferenceByValue<CompletableFuture<Void>>) valueRef;
+            WeakReferenceByValue<CompletableFuture<?>> ref = (WeakReferenceByValue<CompletableFuture<?>>) valueRef;
             String dispatchId = (String)ref.getKeyReference();
 
             cachedDispatchQueues.remove(dispatchId, ref);
@@ -178,16 +751,71 @@ public class WorkStealingDispatcher implements Dispatcher {
             throw new RuntimeException("Already started or in progress");
         }
 
+        if(virtualThreads && service != null) {
+            throw new IllegalStateException("Virtual threads cannot run on the executor set by setExecutorService");
+        }
+
         started  = true;
 
         if(service == null) {
-            service = newDefaultForkJoinPool(threadsCount);
+            service = virtualThreads
+                    ? VirtualThreads.newThreadPerTaskExecutor("dispatcher-virtual-")
+                    : newDefaultForkJoinPool(threadsCount);
+        }
+        if (service instanceof ForkJoinPool) {
+            blockingStats.setPool((ForkJoinPool) service);
+        }
+        executor = service;
+        if (priorityWeights != null) {
+            lanes = new PriorityLanes(service, priorityWeights);
+            executor = lanes;
         }
         cachedDispatchQueues = new ConcurrentHashMap<>();
+        chains = new ConcurrentHashMap<>();
         valueReferenceQueue = new ReferenceQueue<>();
+        dispatchQueues = new ConcurrentHashMap<>();
+        if (maxPendingTasksPerKey != Integer.MAX_VALUE || maxPendingTasks != Integer.MAX_VALUE) {
+            backpressure = new Backpressure(maxPendingTasksPerKey, maxPendingTasks, overflowPolicy, overflowStats);
+        }
+        longDispatchQueues = new LongDispatchQueueMap(threadsCount, executor, throughput, backpressure,
+                unBoundedCache ? Integer.MAX_VALUE : queueSize);
+    }
+
+    /**
+     * @return number of dispatchIds currently cached, for monitoring
+     */
+    public int getCacheSize() {
+        return cachedDispatchQueues.size() + chains.size() + dispatchQueues.size() + longDispatchQueues.size();
+    }
+
+    /**
+     * @return counters of tasks that hit the pending tasks limits
+     */
+    public OverflowStats getOverflowStats() {
+        return overflowStats;
+    }
+
+    /**
+     * @return counters of tasks dispatched by dispatchBlockingAsync and of compensation threads
+     */
+    public BlockingStats getBlockingStats() {
+        return blockingStats;
     }
 
     public void stop() {
+        drainAsync(null).join(); //blocking
+    }
+
+    /**
+     * Mailboxes and futures chains are drained in parallel, then the executor is shut down gracefully.
+     * Tasks of mailboxes abandoned at the deadline are handed back, futures chains are left to the executor.
+     */
+    @Override
+    public CompletableFuture<ShutdownReport> stopAsync(Duration deadline) {
+        return drainAsync(Objects.requireNonNull(deadline, "deadline"));
+    }
+
+    private CompletableFuture<ShutdownReport> drainAsync(Duration deadline) {
 
         if(stopped) {
             throw new RuntimeException("Already stopped or in progress");
@@ -195,16 +823,62 @@ public class WorkStealingDispatcher implements Dispatcher {
 
         stopped  = true;
 
-        CompletableFuture<?>[] futures = cachedDispatchQueues //blocking
-                .values()
-                .stream()
-                .filter(v -> v.get() != null)
-                .map(v -> v.get())
-                .toArray(CompletableFuture<?>[]::new);
+        List<DispatchQueue> queues = new ArrayList<>(dispatchQueues.values());
+        queues.addAll(longDispatchQueues.queues());
+
+        List<CompletableFuture<?>> futures = Stream.concat(
+                cachedDispatchQueues
+                        .values()
+                        .stream()
+                        .map(v -> v.get())
+                        .filter(v -> v != null),
+                chains
+                        .values()
+                        .stream()
+                        .map(chain -> chain.tail))
+                .collect(Collectors.toList());
+
+        return DrainingShutdown.drain(queues, futures, deadline)
+                .whenComplete((report, t) -> service.shutdown());
+    }
+
+    private final class ChainEntry implements Supplier<Object>, BiFunction<Object, Throwable, Object> {
 
-        CompletableFuture.allOf(futures).join();
+        private final String dispatchId;
+        private final long lastDispatchNanos;
+        // both null unless the entry removes itself on completion, else one of them
+        private final Runnable task;
+        private final Supplier<?> supplier;
+        private CompletableFuture<?> tail; // set inside compute, published by the map
 
-        service.shutdown();
+        private ChainEntry(String dispatchId, long lastDispatchNanos, Runnable task, Supplier<?> supplier) {
+            this.dispatchId = dispatchId;
+            this.lastDispatchNanos = lastDispatchNanos;
+            this.task = task;
+            this.supplier = supplier;
+        }
+
+        /**
+         * Runs the task, then removes the entry unless the dispatchId has been dispatched again.
+         * The removal waits for compute to install the entry, since both lock the same bin.
+         */
+        @Override
+        public Object get() {
+            try {
+                if (task != null) {
+                    task.run();
+                    return null;
+                }
+                return supplier.get();
+            } finally {
+                removeChain(this);
+            }
+        }
+
+        @Override
+        public Object apply(Object previousResult, Throwable previousFailure) {
+            return get();
+        }
     }
 
 }
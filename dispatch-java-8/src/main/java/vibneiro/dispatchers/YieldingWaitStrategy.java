@@ -0,0 +1,12 @@
+package vibneiro.dispatchers;
+
+/**
+ * Yields the core to other threads between polls. Low latency, while other threads still progress on a busy box.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(int idleCount, Parker parker) {
+        Thread.yield();
+    }
+}
@@ -0,0 +1,71 @@
+package vibneiro.idgenerators;
+
+import vibneiro.idgenerators.time.DateSource;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Snowflake-like generator of unique 64-bit ids: [0 | 41 bits of millis since 2015 | 16 bits of sequence | 6 bits of stripe]
+ */
+@ThreadSafe
+public class SnowflakeIdGenerator {
+
+    public static final long EPOCH = 1420070400000L; // 2015-01-01T00:00:00Z
+
+    private static final int STRIPE_BITS = 6;
+    private static final int SEQUENCE_BITS = 16;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int PADDING_SHIFT = 4; // 16 longs = 128 bytes per stripe, adjacent line prefetch included
+
+    private final AtomicLongArray lastIds = new AtomicLongArray(STRIPES << PADDING_SHIFT);
+
+    private final String prefix;
+    private final DateSource dateSource;
+
+    public SnowflakeIdGenerator(DateSource dateSource) {
+        this("", dateSource);
+    }
+
+    /**
+     * @param prefix prepended to ids in their String form only
+     */
+    public SnowflakeIdGenerator(String prefix, DateSource dateSource) {
+        this.prefix = prefix;
+        this.dateSource = dateSource;
+    }
+
+    public long nextId() {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        int index = stripe << PADDING_SHIFT;
+        long now = (dateSource.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+
+        long last;
+        long next;
+        do {
+            last = lastIds.get(index);
+            next = Math.max(now, last + 1);
+        } while (!lastIds.compareAndSet(index, last, next));
+
+        return (next << STRIPE_BITS) | stripe;
+    }
+
+    /**
+     * The String form is built only on demand, callers keeping numeric ids pay nothing for it.
+     */
+    public String nextStringId() {
+        return toString(nextId());
+    }
+
+    public String toString(long id) {
+        return prefix + id;
+    }
+
+    /**
+     * @return millis the id was generated at, might be slightly ahead of the clock under bursts
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (SEQUENCE_BITS + STRIPE_BITS)) + EPOCH;
+    }
+
+}
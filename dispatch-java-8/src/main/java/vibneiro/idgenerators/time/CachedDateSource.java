@@ -0,0 +1,42 @@
+package vibneiro.idgenerators.time;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Coarse clock: a daemon thread refreshes the time every resolution, readers only do a volatile read.
+ */
+public class CachedDateSource implements DateSource, AutoCloseable {
+
+    private volatile long currentTimeMillis = System.currentTimeMillis();
+    private final Thread ticker;
+
+    public CachedDateSource() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public CachedDateSource(long resolution, TimeUnit unit) {
+        final long resolutionNanos = unit.toNanos(resolution);
+        ticker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                currentTimeMillis = System.currentTimeMillis();
+                LockSupport.parkNanos(this, resolutionNanos);
+            }
+        }, "CachedDateSource-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    /**
+     * Stops the ticker, the time is frozen afterwards.
+     */
+    @Override
+    public void close() {
+        ticker.interrupt();
+    }
+}
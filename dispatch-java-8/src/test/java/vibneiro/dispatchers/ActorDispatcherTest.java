@@ -0,0 +1,441 @@
+package vibneiro.dispatchers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActorDispatcherTest {
+
+    private static final int INCREMENT = 1;
+    private static final int FAIL = 2;
+
+    private ActorDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = ActorDispatcher.newBuilder().setThreadsCount(4).setThroughput(3).build();
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    /**
+     * Remembers the sequence numbers it receives and whether it was ever entered concurrently.
+     */
+    private static class RecordingActor extends Actor {
+
+        final List<Integer> received = new ArrayList<>(); // touched by receive only
+        final AtomicBoolean inside = new AtomicBoolean();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+
+        @Override
+        protected void receive(Message message) {
+            if (!inside.compareAndSet(false, true)) {
+                overlapped.set(true);
+            }
+            switch (message.getMsgType()) {
+                case INCREMENT:
+                    received.add(((Sequenced) message).sequence);
+                    break;
+                case FAIL:
+                    inside.set(false);
+                    throw new IllegalStateException("failed");
+                default:
+                    break;
+            }
+            inside.set(false);
+        }
+    }
+
+    private static class Sequenced extends Message {
+
+        final int sequence;
+
+        Sequenced(int sequence) {
+            super(INCREMENT, null);
+            this.sequence = sequence;
+        }
+    }
+
+    @Test
+    public void testMessagesOfAnActorAreHandledInOrderOneAtATime() throws Exception {
+        final int actorsCount = 20;
+        final int messagesPerActor = 5000;
+        final List<RecordingActor> actors = new ArrayList<>();
+        for (int i = 0; i < actorsCount; i++) {
+            actors.add(new RecordingActor());
+        }
+
+        for (int m = 0; m < messagesPerActor; m++) {
+            for (RecordingActor actor : actors) {
+                dispatcher.dispatch(actor, new Sequenced(m));
+            }
+        }
+        List<CompletableFuture<Void>> last = new ArrayList<>();
+        for (RecordingActor actor : actors) {
+            last.add(dispatcher.dispatchAsync(actor, new Message(0, null)));
+        }
+        CompletableFuture.allOf(last.toArray(new CompletableFuture<?>[0])).get(20, TimeUnit.SECONDS);
+
+        for (RecordingActor actor : actors) {
+            assertFalse(actor.overlapped.get());
+            assertEquals(messagesPerActor, actor.received.size());
+            for (int m = 0; m < messagesPerActor; m++) {
+                assertEquals(m, (int) actor.received.get(m));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedMessageFailsItsFutureOnly() throws Exception {
+        RecordingActor actor = new RecordingActor();
+
+        CompletableFuture<Void> failed = dispatcher.dispatchAsync(actor, new Message(FAIL, null));
+        dispatcher.dispatch(actor, new Message(FAIL, null)); // only logged
+        CompletableFuture<Void> next = dispatcher.dispatchAsync(actor, new Sequenced(42));
+
+        next.get(10, TimeUnit.SECONDS);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(Collections.singletonList(42), actor.received);
+    }
+
+    @Test
+    public void testMessageListenersAreNotifiedByTheActorThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final RecordingActor actor = new RecordingActor();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger wrongThread = new AtomicInteger();
+        MessageCompletedListener listener = failure -> {
+            if (Thread.currentThread() == caller) {
+                wrongThread.incrementAndGet();
+            }
+            failures.add(failure);
+        };
+        Message increment = new Sequenced(1);
+        Message failing = new Message(FAIL, null);
+        assertTrue(increment.addListener(listener));
+        assertFalse(increment.addListener(listener));
+        assertTrue(failing.addListener(listener));
+
+        dispatcher.dispatch(actor, increment);
+        dispatcher.dispatch(actor, failing);
+        dispatcher.dispatchAsync(actor, increment).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, failures.size());
+        assertEquals(null, failures.get(0));
+        assertTrue(failures.get(1) instanceof IllegalStateException);
+        assertEquals(null, failures.get(2));
+        assertEquals(0, wrongThread.get());
+
+        assertTrue(increment.removeListener(listener));
+        dispatcher.dispatchAsync(actor, increment).get(10, TimeUnit.SECONDS);
+        assertEquals(3, failures.size());
+    }
+
+    /**
+     * Replies with twice the sequence of a Sequenced message, ignores others and fails on FAIL.
+     */
+    private static class DoublingActor extends Actor {
+
+        final AtomicInteger droppedReplies = new AtomicInteger();
+
+        @Override
+        protected void receive(Message message) {
+            switch (message.getMsgType()) {
+                case INCREMENT:
+                    if (reply(2 * ((Sequenced) message).sequence)) {
+                        assertFalse(reply(0));
+                    } else { // not asked or timed out
+                        droppedReplies.incrementAndGet();
+                    }
+                    break;
+                case FAIL:
+                    throw new IllegalStateException("failed");
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testAskedMessagesAreRepliedAndTheirTimeoutsCancelled() throws Exception {
+        final int asks = 100000;
+        int pendingTimeouts = TimerWheel.shared().size();
+        DoublingActor[] actors = {new DoublingActor(), new DoublingActor(), new DoublingActor()};
+        List<CompletableFuture<Object>> replies = new ArrayList<>(asks);
+        for (int i = 0; i < asks; i++) {
+            replies.add(dispatcher.ask(actors[i % actors.length], new Sequenced(i), Duration.ofMinutes(1)));
+        }
+        dispatcher.dispatch(actors[0], new Message(0, null));
+
+        for (int i = 0; i < asks; i++) {
+            assertEquals(2 * i, replies.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(pendingTimeouts, TimerWheel.shared().size());
+        for (DoublingActor actor : actors) {
+            assertEquals(0, actor.droppedReplies.get());
+        }
+    }
+
+    @Test
+    public void testAskTimesOutWithoutReplyAndFailsWithTheActor() throws Exception {
+        Actor actor = new DoublingActor();
+        long start = System.nanoTime();
+        CompletableFuture<Object> unreplied = dispatcher.ask(actor, new Message(0, null), Duration.ofMillis(50));
+        CompletableFuture<Object> failed = dispatcher.ask(actor, new Message(FAIL, null), Duration.ofMinutes(1));
+
+        try {
+            unreplied.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        // timed out before the actor gets to it, the late reply is dropped
+        final CountDownLatch release = new CountDownLatch(1);
+        DoublingActor blocked = new DoublingActor() {
+            @Override
+            protected void receive(Message message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receive(message);
+            }
+        };
+        dispatcher.dispatch(blocked, new Message(0, null));
+        CompletableFuture<Object> late = dispatcher.ask(blocked, new Sequenced(1), Duration.ofMillis(10));
+        try {
+            late.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        release.countDown();
+        dispatcher.dispatchAsync(blocked, new Message(0, null)).get(10, TimeUnit.SECONDS);
+        assertEquals(1, blocked.droppedReplies.get());
+    }
+
+    @Test
+    public void testCancelledAskCancelsItsTimeout() throws Exception {
+        int pendingTimeouts = TimerWheel.shared().size();
+        final CountDownLatch release = new CountDownLatch(1);
+        Actor blocked = new DoublingActor() {
+            @Override
+            protected void receive(Message message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receive(message);
+            }
+        };
+        CompletableFuture<Object> ask = dispatcher.ask(blocked, new Sequenced(1), Duration.ofHours(1));
+        assertEquals(pendingTimeouts + 1, TimerWheel.shared().size());
+
+        assertTrue(ask.cancel(false));
+        assertEquals(pendingTimeouts, TimerWheel.shared().size());
+        release.countDown();
+        dispatcher.dispatchAsync(blocked, new Message(0, null)).get(10, TimeUnit.SECONDS);
+        assertTrue(ask.isCancelled());
+    }
+
+    @Test
+    public void testBusyActorYieldsToOthers() throws Exception {
+        // a FIFO executor: a ForkJoinPool worker runs its own submissions first
+        ActorDispatcher single = ActorDispatcher.newBuilder()
+                .setExecutorService(Executors.newSingleThreadExecutor())
+                .setThroughput(1)
+                .build();
+        single.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        Actor blocker = new Actor() {
+            @Override
+            protected void receive(Message message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.add("blocker");
+            }
+        };
+        Actor busy = new Actor() {
+            @Override
+            protected void receive(Message message) {
+                handled.add("busy");
+            }
+        };
+        Actor other = new Actor() {
+            @Override
+            protected void receive(Message message) {
+                handled.add("other");
+            }
+        };
+
+        single.dispatch(blocker, new Message(0, null));
+        single.dispatch(busy, new Message(0, null));
+        single.dispatch(busy, new Message(0, null));
+        CompletableFuture<Void> done = single.dispatchAsync(other, new Message(0, null));
+        release.countDown();
+        done.get(10, TimeUnit.SECONDS);
+
+        // busy is rescheduled behind other after a single message
+        assertEquals("busy", handled.get(1));
+        assertEquals("other", handled.get(2));
+        single.stop();
+        assertEquals(4, handled.size());
+    }
+
+    @Test
+    public void testActorIsScheduledAgainAfterRejectedDrain() throws Exception {
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        ActorDispatcher rejected = ActorDispatcher.newBuilder()
+                .setExecutorService(new ForkJoinPool(1) {
+                    @Override
+                    public void execute(Runnable task) {
+                        if (rejecting.get()) {
+                            throw new RejectedExecutionException("Saturated");
+                        }
+                        super.execute(task);
+                    }
+                })
+                .build();
+        rejected.start();
+        RecordingActor actor = new RecordingActor();
+        int pendingTimeouts = TimerWheel.shared().size();
+
+        try {
+            rejected.dispatch(actor, new Sequenced(1));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        try {
+            rejected.ask(actor, new Sequenced(2), Duration.ofHours(1));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(pendingTimeouts, TimerWheel.shared().size());
+
+        rejecting.set(false);
+        rejected.dispatchAsync(actor, new Sequenced(3)).get(10, TimeUnit.SECONDS);
+        rejected.stop();
+        assertEquals(Collections.singletonList(3), actor.received);
+    }
+
+    @Test
+    public void testRejectedRescheduleFailsQueuedMessages() throws Exception {
+        final AtomicBoolean rejecting = new AtomicBoolean();
+        ActorDispatcher rejected = ActorDispatcher.newBuilder()
+                .setExecutorService(new ForkJoinPool(1) {
+                    @Override
+                    public void execute(Runnable task) {
+                        if (rejecting.get()) {
+                            throw new RejectedExecutionException("Saturated");
+                        }
+                        super.execute(task);
+                    }
+                })
+                .setThroughput(1)
+                .build();
+        rejected.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        Actor actor = new Actor() {
+            @Override
+            protected void receive(Message message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.incrementAndGet();
+            }
+        };
+
+        CompletableFuture<Void> first = rejected.dispatchAsync(actor, new Message(INCREMENT, null));
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            queued.add(rejected.dispatchAsync(actor, new Message(INCREMENT, null)));
+        }
+        rejecting.set(true); // the drain cannot be scheduled again after the first message
+        release.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : queued) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        CompletableFuture.runAsync(rejected::stop).get(10, TimeUnit.SECONDS); // the actor is idle
+        assertEquals(1, handled.get());
+    }
+
+    @Test
+    public void testStopHandlesPendingMessagesAndRejectsNewOnes() {
+        ActorDispatcher stopping = ActorDispatcher.newBuilder().setThreadsCount(2).build();
+        stopping.start();
+        final AtomicInteger handled = new AtomicInteger();
+        Actor actor = new Actor() {
+            @Override
+            protected void receive(Message message) {
+                handled.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < 10000; i++) {
+            stopping.dispatch(actor, new Message(INCREMENT, null));
+        }
+
+        stopping.stop();
+        assertEquals(10000, handled.get());
+        try {
+            stopping.dispatch(actor, new Message(INCREMENT, null));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AffinityThreadFactoryTest {
+
+    private static final long WAIT_MS = 20000;
+
+    @Test
+    public void testThreadsArePinnedRoundRobin() throws Exception {
+        List<String> pinned = new CopyOnWriteArrayList<>();
+        AffinityThreadFactory factory = new AffinityThreadFactory("pinned-",
+                cpus -> pinned.add(Thread.currentThread().getName() + ":" + Arrays.toString(cpus)),
+                new int[] {0, 1}, new int[] {2});
+
+        for (int i = 0; i < 3; i++) {
+            Thread thread = factory.newThread(() -> {});
+            thread.start();
+            thread.join(WAIT_MS);
+        }
+
+        assertEquals(Arrays.asList("pinned-0:[0, 1]", "pinned-1:[2]", "pinned-2:[0, 1]"), pinned);
+    }
+
+    @Test
+    public void testThreadRunsUnpinnedIfPinningFails() throws Exception {
+        AffinityThreadFactory factory = new AffinityThreadFactory("pinned-", cpus -> {
+            throw new IllegalStateException("no affinity here");
+        }, new int[] {0});
+
+        AtomicReference<String> ran = new AtomicReference<>();
+        Thread thread = factory.newThread(() -> ran.set(Thread.currentThread().getName()));
+        thread.start();
+        thread.join(WAIT_MS);
+
+        assertEquals("pinned-0", ran.get());
+    }
+
+    @Test
+    public void testWorkersArePinned() throws Exception {
+        Map<String, int[]> pinned = new ConcurrentHashMap<>();
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .pinWorkersToCpus(3, 5)
+                .setCpuAffinity(cpus -> pinned.put(Thread.currentThread().getName(), cpus))
+                .build();
+        d.start();
+        d.dispatchAsync(0L, () -> {}).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        d.dispatchAsync(1L, () -> {}).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        d.stop();
+
+        assertArrayEquals(new int[] {3}, pinned.get("dispatcher-worker-0"));
+        assertArrayEquals(new int[] {5}, pinned.get("dispatcher-worker-1"));
+    }
+
+    @Test
+    public void testReaddedWorkerIsPinnedToItsOwnCpu() throws Exception {
+        List<String> pinned = new CopyOnWriteArrayList<>();
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .pinWorkersToCpus(3, 5, 7)
+                .setCpuAffinity(cpus -> pinned.add(Thread.currentThread().getName() + ":" + Arrays.toString(cpus)))
+                .build();
+        d.start();
+        d.resize(3);
+        d.resize(2);
+        d.resize(3);
+        d.stop();
+
+        assertEquals(4, pinned.size());
+        assertEquals(2, pinned.stream().filter("dispatcher-worker-2:[7]"::equals).count());
+    }
+
+    @Test
+    public void testTasksetPinsThread() throws Exception {
+        assumeTrue(new File("/proc/thread-self/status").exists() && new File("/usr/bin/taskset").exists());
+
+        AtomicReference<String> allowed = new AtomicReference<>();
+        Thread thread = new AffinityThreadFactory("pinned-", 0).newThread(() -> {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/thread-self/status"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("Cpus_allowed_list:")) {
+                        allowed.set(line.substring("Cpus_allowed_list:".length()).trim());
+                    }
+                }
+            } catch (Exception e) {
+                allowed.set(e.toString());
+            }
+        });
+        thread.start();
+        thread.join(WAIT_MS);
+
+        assertEquals("0", allowed.get());
+    }
+
+    @Test
+    public void testCpuListIsParsed() {
+        assertArrayEquals(new int[] {0, 1, 2, 3, 8, 10, 11}, TasksetCpuAffinity.parseCpuList("0-3,8,10-11\n"));
+        assertEquals("0,2,4", TasksetCpuAffinity.toCpuList(new int[] {0, 2, 4}));
+        assertTrue(TasksetCpuAffinity.parseCpuList("").length == 0);
+    }
+}
@@ -0,0 +1,67 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BackpressureTest {
+
+    @Test
+    public void testDropOldestWaitsIfOnlyControlTasksAreQueued() throws Exception {
+        Backpressure backpressure = new Backpressure(1, Integer.MAX_VALUE, OverflowPolicy.DROP_OLDEST,
+                new OverflowStats());
+        AtomicInteger polls = new AtomicInteger();
+        ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>() {
+            @Override
+            public Runnable poll() {
+                polls.incrementAndGet();
+                return super.poll();
+            }
+        };
+        Backpressure.Undroppable barrier = () -> {};
+        queue.offer(barrier);
+        AtomicInteger pending = new AtomicInteger(1);
+
+        CompletableFuture<Boolean> overflow = CompletableFuture.supplyAsync(
+                () -> backpressure.onOverflow(queue, pending, () -> {}, true));
+        Thread.sleep(100);
+        assertFalse(overflow.isDone());
+        assertEquals(1, polls.get());
+
+        pending.set(0); // the barrier has been run
+        assertFalse(overflow.get(5, TimeUnit.SECONDS));
+        assertSame(barrier, queue.peek());
+    }
+
+    @Test
+    public void testDropOldestRetriesToOfferIntoFullQueue() throws Exception {
+        OverflowStats stats = new OverflowStats();
+        Backpressure backpressure = new Backpressure(1, Integer.MAX_VALUE, OverflowPolicy.DROP_OLDEST, stats);
+        AtomicInteger failedOffers = new AtomicInteger();
+        ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(1) {
+            @Override
+            public boolean offer(Runnable task) {
+                // the slot freed by the dropped task is taken by a control task a few times
+                return failedOffers.getAndDecrement() <= 0 && super.offer(task);
+            }
+        };
+        CompletableTask oldest = new CompletableTask(() -> {});
+        queue.add(oldest);
+        failedOffers.set(3);
+        Runnable task = () -> {};
+
+        assertTrue(backpressure.onOverflow(queue, new AtomicInteger(1), task, true));
+        assertTrue(oldest.isCancelled());
+        assertSame(task, queue.poll());
+        assertEquals(1, stats.getDroppedCount());
+    }
+}
@@ -8,10 +8,16 @@ import org.slf4j.LoggerFactory;
 import vibneiro.idgenerators.IdGenerator;
 import vibneiro.idgenerators.time.SystemDateSource;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
+
 public class CaffeineCachedDispatcherTest {
     private CaffeineCachedDispatcher dispatcher;
     private IdGenerator idGenerator;
@@ -84,6 +90,72 @@ public class CaffeineCachedDispatcherTest {
         }
     }
 
+    @Test
+    public void testFIFOWithThroughput() throws Exception {
+
+        CaffeineCachedDispatcher batchingDispatcher = CaffeineCachedDispatcher
+                .newBuilder()
+                .setThroughput(16)
+                .build();
+        batchingDispatcher.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-1);
+        final AtomicInteger broken = new AtomicInteger();
+
+        for (int i = 0; i < 1000000; i++) {
+            final int taskNo = i;
+            batchingDispatcher.dispatchAsync(i % 2 == 0 ? "even" : "odd", () -> {
+                if (taskNo % 2 == 0 && prevIdx.getAndSet(taskNo) != taskNo - 2 && taskNo != 0) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+        batchingDispatcher.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals(999998, prevIdx.get());
+    }
+
+    @Test
+    public void testSubmittedTasksReturnResultsInOrder() throws Exception {
+        assertSubmittedResultsInOrder(dispatcher);
+
+        CaffeineCachedDispatcher mailboxDispatcher = CaffeineCachedDispatcher.newBuilder().mailboxQueues().build();
+        mailboxDispatcher.start();
+        assertSubmittedResultsInOrder(mailboxDispatcher);
+        mailboxDispatcher.stop();
+    }
+
+    private static void assertSubmittedResultsInOrder(CaffeineCachedDispatcher d) throws Exception {
+        final AtomicInteger sequence = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            d.dispatchAsync("id", () -> sequence.incrementAndGet());
+            results.add(d.submitAsync("id", sequence::incrementAndGet));
+        }
+        CompletableFuture<String> longResult = d.submitAsync(42L, () -> "result");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2 * i + 2, (int) results.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals("result", longResult.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBatchedTasksRunInOrderPerDispatchId() throws Exception {
+        WorkStealingDispatcherTest.assertBatchedTasksRunInOrder(dispatcher);
+
+        CaffeineCachedDispatcher mailboxDispatcher = CaffeineCachedDispatcher.newBuilder().mailboxQueues().build();
+        mailboxDispatcher.start();
+        WorkStealingDispatcherTest.assertBatchedTasksRunInOrder(mailboxDispatcher);
+        mailboxDispatcher.stop();
+    }
+
+    @Test
+    public void testListenersAreNotifiedByTheWorkerRightAfterTheTask() throws Exception {
+        WorkStealingDispatcherTest.assertListenersNotified(dispatcher);
+    }
+
     private interface Callback {
         void callback(int curIndex);
     }
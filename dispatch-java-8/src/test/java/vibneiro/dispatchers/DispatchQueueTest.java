@@ -0,0 +1,87 @@
+package vibneiro.dispatchers;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DispatchQueueTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDrainMarkerIsNotDroppedOnOverflow() throws Exception {
+        OverflowStats stats = new OverflowStats();
+        DispatchQueue queue = new DispatchQueue(executor, Integer.MAX_VALUE,
+                new Backpressure(3, Integer.MAX_VALUE, OverflowPolicy.DROP_OLDEST, stats));
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        queue.enqueue(() -> {
+            running.countDown();
+            awaitQuietly(release);
+        });
+        running.await();
+        CompletableFuture<Void> drained = queue.drained(); // the oldest queued task
+        CompletableTask dropped = new CompletableTask(() -> {});
+        queue.enqueue(dropped);
+        CompletableTask last = new CompletableTask(() -> {});
+        queue.enqueue(last);
+
+        release.countDown();
+        drained.get(5, TimeUnit.SECONDS);
+        last.get(5, TimeUnit.SECONDS);
+        assertTrue(dropped.isCancelled());
+        assertEquals(1, stats.getDroppedCount());
+    }
+
+    @Test
+    public void testQueuedTasksFailIfResubmissionIsRejected() throws Exception {
+        DispatchQueue queue = new DispatchQueue(executor, 1, null);
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableTask first = new CompletableTask(() -> {
+            running.countDown();
+            awaitQuietly(release);
+        });
+        queue.enqueue(first);
+        CompletableTask second = new CompletableTask(() -> {});
+        queue.enqueue(second);
+        running.await();
+        executor.shutdown();
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("ExecutionException is expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(0, queue.pendingTasks());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
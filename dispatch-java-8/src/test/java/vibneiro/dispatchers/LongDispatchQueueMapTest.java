@@ -0,0 +1,79 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongDispatchQueueMapTest {
+
+    private static final int KEYS = 100000;
+
+    @Test
+    public void testQueuePerKey() {
+        LongDispatchQueueMap map = new LongDispatchQueueMap(1, Runnable::run, Integer.MAX_VALUE, null, Integer.MAX_VALUE);
+
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            for (long key = 0; key < KEYS; key++) {
+                map.enqueue(key * 31 - KEYS, executed::incrementAndGet); // negative, zero and positive keys
+            }
+        }
+
+        assertEquals(3 * KEYS, executed.get());
+        assertEquals(KEYS, map.size());
+        assertEquals(KEYS, map.queues().size());
+    }
+
+    @Test
+    public void testIdleQueuesAreRetired() throws Exception {
+        LongDispatchQueueMap map = new LongDispatchQueueMap(1, ForkJoinPool.commonPool(), Integer.MAX_VALUE, null, 16);
+
+        CompletableTask last = null;
+        for (long key = 0; key < KEYS; key++) {
+            last = new CompletableTask(() -> {});
+            map.enqueue(key, last);
+        }
+        last.get(10, TimeUnit.SECONDS);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (map.size() > 16 && System.currentTimeMillis() < deadline) {
+            map.enqueue(-1L, () -> {}); // triggers pruning
+            Thread.sleep(10);
+        }
+        assertTrue("size: " + map.size(), map.size() <= 16);
+
+        CompletableTask afterRetirement = new CompletableTask(() -> {});
+        map.enqueue(0L, afterRetirement);
+        afterRetirement.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFIFOPerKeyWithConcurrentRetirement() throws Exception {
+        LongDispatchQueueMap map = new LongDispatchQueueMap(2, ForkJoinPool.commonPool(), 8, null, 4);
+
+        final AtomicInteger prevIdx = new AtomicInteger(-1);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableTask last = null;
+        for (int i = 0; i < 100000; i++) {
+            final int taskNo = i;
+            map.enqueue(i + 1000L, () -> {}); // churn of other keys
+            last = new CompletableTask(() -> {
+                if (prevIdx.getAndSet(taskNo) != taskNo - 1) {
+                    broken.incrementAndGet();
+                }
+            });
+            map.enqueue(7L, last);
+        }
+        last.get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, broken.get());
+        assertEquals(99999, prevIdx.get());
+    }
+}
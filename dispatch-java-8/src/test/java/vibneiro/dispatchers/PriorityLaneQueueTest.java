@@ -0,0 +1,148 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.*;
+
+public class PriorityLaneQueueTest {
+
+    @Test
+    public void testSmoothWeightedSchedule() {
+        assertArrayEquals(new int[] {0, 1, 0, 0, 1, 0, 2, 0, 1, 0, 0, 1, 0},
+                PriorityLanes.schedule(PriorityLanes.DEFAULT_WEIGHTS));
+        assertArrayEquals(new int[] {0, 1, 2}, PriorityLanes.schedule(new int[] {1, 1, 1}));
+    }
+
+    @Test
+    public void testHighTasksOvertakeBulkOnes() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(0, PriorityLanes.weights(3, 1, 1));
+        for (int i = 0; i < 3; i++) {
+            queue.offer(PriorityLaneQueue.keyed(i, Priority.BULK, new Named("bulk" + i)));
+        }
+        for (int i = 0; i < 3; i++) {
+            queue.offer(PriorityLaneQueue.keyed(10 + i, Priority.HIGH, new Named("high" + i)));
+        }
+
+        // 3:1:1 is H N H B H, the NORMAL lane is empty
+        assertEquals("[high0, high1, high2, bulk0, bulk1, bulk2]", drain(queue).toString());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testTaskJoinsLaneOfPendingTasksOfItsDispatchId() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(0, PriorityLanes.DEFAULT_WEIGHTS);
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.BULK, new Named("bulk")));
+        queue.offer(PriorityLaneQueue.keyed(2, Priority.HIGH, new Named("other")));
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.HIGH, new Named("high")));
+
+        assertEquals("[other, bulk, high]", drain(queue).toString());
+
+        // nothing is pending anymore, thus the dispatchId takes the lane of its priority again
+        queue.offer(PriorityLaneQueue.keyed(3, Priority.BULK, new Named("bulk")));
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.HIGH, new Named("high")));
+        assertEquals("[high, bulk]", drain(queue).toString());
+    }
+
+    @Test
+    public void testFenceIsPolledAfterTasksOfAllLanes() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(4, PriorityLanes.DEFAULT_WEIGHTS);
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.BULK, new Named("bulk")));
+        queue.offer(PriorityLaneQueue.keyed(2, Priority.NORMAL, new Named("normal")));
+        queue.offer(new Fence());
+        queue.offer(PriorityLaneQueue.keyed(3, Priority.HIGH, new Named("high")));
+
+        assertEquals("[normal, bulk, fence, high]", drain(queue).toString());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testHighTasksOfIdleDispatchIdsOvertakeBulkBacklog() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(0, PriorityLanes.DEFAULT_WEIGHTS);
+        for (int i = 0; i < 5000; i++) {
+            queue.offer(PriorityLaneQueue.keyed(ThreadLocalRandom.current().nextLong(), Priority.BULK, new Named("bulk")));
+        }
+        for (int i = 0; i < 100; i++) {
+            queue.offer(PriorityLaneQueue.keyed(i, Priority.HIGH, new Named("high")));
+        }
+
+        List<Runnable> polled = drain(queue);
+        int lastHigh = 0;
+        for (int i = 0; i < polled.size(); i++) {
+            if (polled.get(i).toString().equals("high")) {
+                lastHigh = i;
+            }
+        }
+        // 12 of 13 turns go to HIGH while NORMAL is empty
+        assertTrue("HIGH tasks waited for the BULK backlog: " + lastHigh, lastHigh < 110);
+    }
+
+    @Test
+    public void testPeekReturnsNextPolledTask() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(0, PriorityLanes.weights(3, 1, 1));
+        assertNull(queue.peek());
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.BULK, new Named("bulk")));
+        queue.offer(new Fence());
+        queue.offer(PriorityLaneQueue.keyed(2, Priority.HIGH, new Named("high")));
+
+        for (Runnable expected; (expected = queue.peek()) != null; ) {
+            assertSame(expected, queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testIterationAndDrainUnwrapTasks() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(4, PriorityLanes.DEFAULT_WEIGHTS);
+        Named bulk = new Named("bulk");
+        Named high = new Named("high");
+        queue.offer(PriorityLaneQueue.keyed(1, Priority.BULK, bulk));
+        queue.offer(new Fence());
+        queue.offer(PriorityLaneQueue.keyed(2, Priority.HIGH, high));
+
+        assertEquals("[fence, high, bulk]", new ArrayList<>(queue).toString());
+        assertTrue(queue.contains(high));
+
+        List<Runnable> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        assertEquals(Arrays.asList(high, bulk), drained);
+        assertTrue(queue.isEmpty());
+    }
+
+    private static List<Runnable> drain(PriorityLaneQueue queue) {
+        List<Runnable> polled = new ArrayList<>();
+        for (Runnable task; (task = queue.poll()) != null; ) {
+            polled.add(task);
+        }
+        return polled;
+    }
+
+    private static class Named implements Runnable {
+
+        private final String name;
+
+        private Named(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Fence extends Named implements PriorityLaneQueue.Fence {
+
+        private Fence() {
+            super("fence");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RingBufferQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int ITEMS_PER_PRODUCER = 1000000;
+
+    @Test
+    public void testFIFOAndCapacity() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(3);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse("capacity is rounded up to 4", queue.offer(4));
+        assertEquals(4, queue.size());
+
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), queue.peek());
+                assertEquals(Integer.valueOf(i), queue.poll());
+                assertTrue(queue.offer(i));
+            }
+        }
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void testManyProducersSingleConsumer() throws InterruptedException {
+        final RingBufferQueue<Long> queue = new RingBufferQueue<>(1024);
+        final CountDownLatch producersLatch = new CountDownLatch(PRODUCERS);
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final long producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (long i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                        Long item = (producer << 32) | i;
+                        while (!queue.offer(item)) {
+                            Thread.yield();
+                        }
+                    }
+                    producersLatch.countDown();
+                }
+            }.start();
+        }
+
+        long[] lastByProducer = new long[PRODUCERS];
+        Arrays.fill(lastByProducer, -1);
+        long consumed = 0;
+
+        while (consumed < (long) PRODUCERS * ITEMS_PER_PRODUCER) {
+            Long item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) (item >>> 32);
+            long seq = item & 0xFFFFFFFFL;
+            assertEquals("FIFO per producer is broken", lastByProducer[producer] + 1, seq);
+            lastByProducer[producer] = seq;
+            consumed++;
+        }
+
+        producersLatch.await();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testIterator() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.offer(i));
+            if (i % 2 == 1) {
+                queue.poll();
+            }
+        }
+
+        assertEquals(Arrays.asList(3, 4, 5), new ArrayList<>(queue));
+        assertTrue(queue.contains(4));
+        queue.clear();
+        assertFalse(queue.iterator().hasNext());
+    }
+
+    @Test
+    public void testManyProducersManyConsumers() throws InterruptedException {
+        final int consumers = 2;
+        final int items = 100000;
+        final RingBufferQueue<Integer> queue = new RingBufferQueue<>(64);
+        final BitSet[] consumed = new BitSet[consumers];
+        final AtomicLong remaining = new AtomicLong((long) PRODUCERS * items);
+        final CountDownLatch consumersLatch = new CountDownLatch(consumers);
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < items; i++) {
+                        while (!queue.offer(producer * items + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }.start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            final BitSet seen = consumed[c] = new BitSet();
+            new Thread() {
+                @Override
+                public void run() {
+                    while (remaining.get() > 0) {
+                        Integer item = queue.poll();
+                        if (item == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        seen.set(item);
+                        remaining.decrementAndGet();
+                    }
+                    consumersLatch.countDown();
+                }
+            }.start();
+        }
+
+        consumersLatch.await();
+        assertFalse("an item is consumed twice", consumed[0].intersects(consumed[1]));
+        consumed[0].or(consumed[1]);
+        assertEquals(PRODUCERS * items, consumed[0].cardinality());
+    }
+}
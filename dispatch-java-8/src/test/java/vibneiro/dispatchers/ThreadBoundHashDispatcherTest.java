@@ -4,12 +4,24 @@ import org.junit.Test;
 import vibneiro.idgenerators.IdGenerator;
 import vibneiro.idgenerators.time.SystemDateSource;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ThreadBoundHashDispatcherTest {
 
@@ -28,6 +40,642 @@ public class ThreadBoundHashDispatcherTest {
         d.stop();
     }
 
+    @Test
+    public void testAllTasksWithYieldingWaitStrategy() throws InterruptedException {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .setWaitStrategy(new YieldingWaitStrategy())
+                .build();
+        d.start();
+        testAllTasks(d);
+        d.stop();
+    }
+
+    @Test
+    public void testAllTasksWithBackoffParkWaitStrategy() throws InterruptedException {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setWaitStrategy(new BackoffParkWaitStrategy())
+                .build();
+        d.start();
+        testAllTasks(d);
+        d.stop();
+    }
+
+    @Test
+    public void testAllTasksWithRingBufferQueues() throws InterruptedException {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .ringBufferQueues(1024)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        d.start();
+        testAllTasks(d);
+        d.stop();
+    }
+
+    @Test
+    public void testFireAndForgetDispatchKeepsFIFO() throws InterruptedException {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .ringBufferQueues(64)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        d.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-1);
+        final AtomicInteger broken = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < TASKS_PER_THREAD; i++) {
+            final int taskNo = i;
+            d.dispatch("id", () -> {
+                if (prevIdx.getAndSet(taskNo) != taskNo - 1) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+        d.dispatch("id", done::countDown);
+
+        assertTrue(done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        d.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals(TASKS_PER_THREAD - 1, prevIdx.get());
+    }
+
+    @Test
+    public void testLongDispatchIdsKeepFIFO() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().build();
+        d.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-1);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < TASKS_PER_THREAD; i++) {
+            final int taskNo = i;
+            last = d.dispatchAsync(42L, () -> {
+                if (prevIdx.getAndSet(taskNo) != taskNo - 1) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+
+        last.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        d.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals(TASKS_PER_THREAD - 1, prevIdx.get());
+    }
+
+    @Test
+    public void testDropOldestOnPendingTasksPerWorkerLimit() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .setMaxPendingTasksPerWorker(2)
+                .setOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .build();
+        d.start();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        d.dispatchAsync("id", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await(WAIT_MS, TimeUnit.MILLISECONDS);
+
+        CompletableFuture<Void> dropped = d.dispatchAsync("id", () -> {});
+        CompletableFuture<Void> last = d.dispatchAsync("id", () -> {});
+
+        release.countDown();
+        last.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        d.stop();
+
+        assertTrue(dropped.isCancelled());
+        assertEquals(1, d.getOverflowStats().getDroppedCount());
+    }
+
+    @Test
+    public void testStopAsyncDrainsQueuedTasks() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build();
+        d.start();
+
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < TASKS_PER_THREAD; i++) {
+            d.dispatch(i, executed::incrementAndGet);
+        }
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(WAIT_MS)).get();
+
+        assertTrue(report.toString(), report.isDrained());
+        assertEquals(TASKS_PER_THREAD, executed.get());
+        try {
+            d.dispatch("id", () -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testStopAsyncHandsBackAbandonedTasks() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(1).build();
+        d.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger executed = new AtomicInteger();
+        d.dispatch("id", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // interrupted at the deadline
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            d.dispatch("id", executed::incrementAndGet);
+        }
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(100)).get(WAIT_MS, TimeUnit.MILLISECONDS);
+
+        assertFalse(report.isDrained());
+        assertEquals(10, report.getAbandonedTasksCount());
+        assertEquals(10, report.getAbandonedTasks().size());
+        assertEquals(0, executed.get());
+
+        report.getAbandonedTasks().forEach(Runnable::run); // handed back to be run elsewhere
+        assertEquals(10, executed.get());
+    }
+
+    @Test
+    public void testStopAsyncRejectsProducersWaitingForRoom() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .setMaxPendingTasksPerWorker(2)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        d.start();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        d.dispatch("id", () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // interrupted at the deadline
+            }
+        });
+        assertTrue(started.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        CompletableFuture<Void> queued = d.dispatchAsync("id", () -> {});
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture.supplyAsync(
+                () -> d.dispatchAsync("id", () -> {}));
+        Thread.sleep(100); // waits for room
+
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(100)).get(WAIT_MS, TimeUnit.MILLISECONDS);
+
+        try {
+            blocked.get(WAIT_MS, TimeUnit.MILLISECONDS);
+            fail("RejectedExecutionException is expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(Collections.singletonList(queued), report.getAbandonedTasks());
+    }
+
+    @Test
+    public void testStopAsyncRacingProducersLosesNoTask() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .setMaxPendingTasksPerWorker(2)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        d.start();
+
+        final int producers = 4;
+        final List<CompletableFuture<Void>> accepted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch rejected = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final long key = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            accepted.add(d.dispatchAsync(key, () -> LockSupport.parkNanos(100000)));
+                        }
+                    } catch (RejectedExecutionException stopped) {
+                        rejected.countDown();
+                    }
+                }
+            }.start();
+        }
+        Thread.sleep(50);
+
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(1)).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertTrue(rejected.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        List<Runnable> abandoned = report.getAbandonedTasks();
+        for (CompletableFuture<Void> future : accepted) {
+            if (!abandoned.contains(future)) {
+                future.get(WAIT_MS, TimeUnit.MILLISECONDS); // run, not lost
+            }
+        }
+    }
+
+    @Test
+    public void testStopAsyncHandsBackTasksHeldBackByHandoff() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .setRebalanceThreshold(1.1)
+                .setLoadTrackingPeriod(Duration.ofHours(1)) // tracked by the test
+                .build();
+        d.start();
+
+        long hot = 0;
+        while (d.workerIndexOf(hot) != 0) {
+            hot++;
+        }
+        long cold = hot + 1;
+        while (d.workerIndexOf(cold) != 0) {
+            cold++;
+        }
+        d.dispatch(hot, () -> {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // interrupted at the deadline
+            }
+        });
+        for (int i = 0; i < 3000; i++) {
+            d.dispatch(hot, () -> {});
+            if (i % 2 == 0) {
+                d.dispatch(cold, () -> {});
+            }
+        }
+        d.trackLoad();
+        assertEquals(1, d.workerIndexOf(cold));
+
+        // held back by the worker 1 until the worker 0, blocked, runs the tasks dispatched before
+        List<CompletableFuture<Void>> heldBack = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            heldBack.add(d.dispatchAsync(cold, () -> {}));
+        }
+        Thread.sleep(100);
+
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(100)).get(WAIT_MS, TimeUnit.MILLISECONDS);
+
+        assertTrue(report.getAbandonedTasks().containsAll(heldBack));
+        assertEquals(3000 + 1500 + 10, report.getAbandonedTasksCount());
+    }
+
+    @Test
+    public void testJumpHashMovesOnlyKeysOfAddedWorker() {
+        int keys = 100000;
+        int moved = 0;
+        for (long key = 0; key < keys; key++) {
+            int before = ThreadBoundHashDispatcher.jumpHash(key, 4);
+            int after = ThreadBoundHashDispatcher.jumpHash(key, 5);
+            if (before != after) {
+                assertEquals(4, after);
+                moved++;
+            }
+        }
+        assertEquals(keys / 5, moved, keys / 100);
+    }
+
+    @Test
+    public void testResizeKeepsFIFO() throws Exception {
+        assertResizeKeepsFIFO(ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build());
+    }
+
+    @Test
+    public void testResizeKeepsFIFOAcrossPriorityLanes() throws Exception {
+        assertResizeKeepsFIFO(ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .priorityLanes()
+                .build(), Priority.values());
+    }
+
+    @Test
+    public void testResizeLetsTasksDispatchWhileProducerWaitsForRoom() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .setMaxPendingTasksPerWorker(2)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        d.start();
+
+        long full = 0;
+        while (d.workerIndexOf(full) != 0) {
+            full++;
+        }
+        long other = 0;
+        while (d.workerIndexOf(other) != 1) {
+            other++;
+        }
+        final long followUpId = other;
+        final CountDownLatch release = new CountDownLatch(1);
+        final CompletableFuture<Void> followUp = new CompletableFuture<>();
+        d.dispatch(full, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            d.dispatch(followUpId, () -> followUp.complete(null)); // only the resize moves on first
+        });
+        d.dispatch(full, () -> {});
+        final long blockedId = full;
+        CompletableFuture<CompletableFuture<Void>> blocked = CompletableFuture.supplyAsync(
+                () -> d.dispatchAsync(blockedId, () -> {}));
+        Thread.sleep(50); // waits for room
+        CompletableFuture<Void> resized = CompletableFuture.runAsync(() -> d.resize(3));
+        Thread.sleep(50); // waits for the producer
+
+        release.countDown();
+
+        resized.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        followUp.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        blocked.get(WAIT_MS, TimeUnit.MILLISECONDS).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(3, d.getThreadsCount());
+        d.stop();
+    }
+
+    /**
+     * @param priorities of the tasks of a dispatchId in turn, none to dispatch without a priority
+     */
+    private void assertResizeKeepsFIFO(ThreadBoundHashDispatcher d, Priority... priorities) throws Exception {
+        d.start();
+
+        final int keys = 64;
+        final AtomicIntegerArray prevIdx = new AtomicIntegerArray(keys);
+        for (int k = 0; k < keys; k++) {
+            prevIdx.set(k, -1);
+        }
+        final AtomicInteger broken = new AtomicInteger();
+        final AtomicInteger taskNo = new AtomicInteger();
+
+        for (int threadsCount : new int[] {4, 1, 3}) {
+            // the old workers are busy, thus moved dispatchIds have queued tasks at the switch
+            // (blocked by a dispatchId of their own, so that the tasks are free to take lanes of their priorities)
+            CountDownLatch release = new CountDownLatch(1);
+            for (int w = 0, k = keys; w < d.getThreadsCount(); k++) {
+                if (d.workerIndexOf(k) != w) {
+                    continue;
+                }
+                w++;
+                d.dispatch(k, () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            dispatchNextTasks(d, keys, taskNo.getAndIncrement(), prevIdx, broken, priorities);
+
+            CompletableFuture<Void> resized = CompletableFuture.runAsync(() -> d.resize(threadsCount));
+            while (d.getThreadsCount() != threadsCount) {
+                Thread.yield();
+            }
+            dispatchNextTasks(d, keys, taskNo.getAndIncrement(), prevIdx, broken, priorities);
+
+            release.countDown();
+            resized.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        ShutdownReport report = d.stopAsync(Duration.ofMillis(WAIT_MS)).get();
+        assertTrue(report.toString(), report.isDrained());
+        assertEquals(0, broken.get());
+        for (int k = 0; k < keys; k++) {
+            assertEquals(taskNo.get() - 1, prevIdx.get(k));
+        }
+    }
+
+    @Test
+    public void testSubmittedTasksReturnResultsInOrder() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build();
+        d.start();
+
+        final AtomicInteger sequence = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            d.dispatch("id", () -> sequence.incrementAndGet());
+            results.add(d.submitAsync("id", sequence::incrementAndGet));
+        }
+        CompletableFuture<String> longResult = d.submitAsync(42L, () -> "result");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2 * i + 2, (int) results.get(i).get(WAIT_MS, TimeUnit.MILLISECONDS));
+        }
+        assertEquals("result", longResult.get(WAIT_MS, TimeUnit.MILLISECONDS));
+        d.stop();
+    }
+
+    @Test
+    public void testBatchedTasksRunInOrderPerDispatchId() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build();
+        d.start();
+        WorkStealingDispatcherTest.assertBatchedTasksRunInOrder(d);
+        d.stop();
+
+        ThreadBoundHashDispatcher bounded = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(2)
+                .ringBufferQueues(16)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        bounded.start();
+        WorkStealingDispatcherTest.assertBatchedTasksRunInOrder(bounded);
+        bounded.stop();
+    }
+
+    @Test
+    public void testDueScheduledTaskDoesNotWaitForRoom() throws Exception {
+        ThreadBoundHashDispatcher bounded = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .setMaxPendingTasksPerWorker(1)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        bounded.start();
+        WorkStealingDispatcherTest.assertDueScheduledTaskDoesNotWaitForRoom(bounded);
+        bounded.stop();
+    }
+
+    @Test
+    public void testListenersAreNotifiedByTheWorkerRightAfterTheTask() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build();
+        d.start();
+        WorkStealingDispatcherTest.assertListenersNotified(d);
+        d.stop();
+    }
+
+    @Test
+    public void testScheduledTasksTakeTheirTurnsAmongTasksOfTheirDispatchId() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder().setThreadsCount(2).build();
+        d.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        d.dispatch(7L, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            completed.add("blocker");
+        });
+        CompletableFuture<Void> first = d.scheduleAsync(7L, () -> completed.add("first"), Duration.ofMillis(20));
+        CompletableFuture<Void> second = d.scheduleAsync(7L, () -> completed.add("second"), Duration.ofMillis(20));
+        Thread.sleep(100); // both are dispatched behind the blocker
+        d.dispatch(7L, () -> completed.add("third"));
+
+        release.countDown();
+        CompletableFuture.allOf(first, second).get(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertTrue(d.stopAsync(Duration.ofMillis(WAIT_MS)).get().isDrained());
+        assertEquals("[blocker, first, second, third]", completed.toString());
+    }
+
+    @Test
+    public void testPriorityLanesRunHighTasksFirst() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .priorityLanes()
+                .build();
+        d.start();
+
+        // the only worker is busy, thus all the tasks below wait in the lanes
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        d.dispatch(-1L, () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        final int tasks = 20;
+        final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        d.dispatch(0L, Priority.BULK, () -> completed.add("mixed-bulk"));
+        for (int i = 1; i <= tasks; i++) {
+            d.dispatch(i, Priority.BULK, () -> completed.add("bulk"));
+        }
+        for (int i = 1; i <= tasks; i++) {
+            d.dispatch(tasks + i, Priority.HIGH, () -> completed.add("high"));
+        }
+        // FIFO per dispatchId: joins the BULK lane of the pending task of its dispatchId
+        d.dispatch(0L, Priority.HIGH, () -> completed.add("mixed-high"));
+
+        release.countDown();
+        assertTrue(d.stopAsync(Duration.ofMillis(WAIT_MS)).get().isDrained());
+
+        int lastHigh = completed.lastIndexOf("high");
+        int bulkBeforeLastHigh = 0;
+        for (String task : completed.subList(0, lastHigh)) {
+            if (task.startsWith("bulk")) {
+                bulkBeforeLastHigh++;
+            }
+        }
+        // 8:4:1, the NORMAL lane is empty: about one BULK task per 13 run
+        assertTrue(completed.toString(), bulkBeforeLastHigh <= 3);
+        assertTrue(completed.toString(), completed.indexOf("mixed-bulk") < completed.indexOf("mixed-high"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPriorityLanesRejectDropOldest() {
+        ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(1)
+                .priorityLanes()
+                .setOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                .build()
+                .start();
+    }
+
+    @Test
+    public void testRebalanceMovesColderKeysOffHotWorker() throws Exception {
+        ThreadBoundHashDispatcher d = ThreadBoundHashDispatcher.newBuilder()
+                .setThreadsCount(4)
+                .setRebalanceThreshold(1.5)
+                .setLoadTrackingPeriod(Duration.ofHours(1)) // tracked by the test
+                .build();
+        d.start();
+
+        // a hot key and colder ones share the worker 0, the other workers get a key each
+        long[] keys = new long[7];
+        int[] rates = {8000, 2000, 2000, 2000, 500, 500, 500};
+        int found = 0;
+        for (long key = 0; found < 4; key++) {
+            if (d.workerIndexOf(key) == 0) {
+                keys[found++] = key;
+            }
+        }
+        for (long key = 0; found < keys.length; key++) {
+            if (d.workerIndexOf(key) == found - 3) {
+                keys[found++] = key;
+            }
+        }
+
+        final AtomicIntegerArray prevIdx = new AtomicIntegerArray(keys.length);
+        for (int k = 0; k < keys.length; k++) {
+            prevIdx.set(k, -1);
+        }
+        final AtomicInteger broken = new AtomicInteger();
+        int[] next = new int[keys.length];
+
+        dispatchAtRates(d, keys, rates, next, prevIdx, broken);
+        d.trackLoad();
+
+        LoadStats stats = d.getLoadStats();
+        assertTrue(stats.toString(), stats.getImbalance() > 1.5);
+        assertTrue(stats.toString(), stats.getMovedKeys() > 0);
+        assertEquals(stats.getMovedKeys(), stats.getOverriddenKeys());
+        assertEquals(0, d.workerIndexOf(keys[0]));
+
+        dispatchAtRates(d, keys, rates, next, prevIdx, broken);
+        assertTrue(d.stopAsync(Duration.ofMillis(WAIT_MS)).get().isDrained());
+
+        assertEquals(0, broken.get());
+        for (int k = 0; k < keys.length; k++) {
+            assertEquals(next[k] - 1, prevIdx.get(k));
+        }
+    }
+
+    private void dispatchAtRates(Dispatcher d, long[] keys, int[] rates, int[] next, AtomicIntegerArray prevIdx,
+                                 AtomicInteger broken) {
+        for (int i = 0; i < rates[0]; i++) {
+            for (int k = 0; k < keys.length; k++) {
+                if (i % (rates[0] / rates[k]) != 0) {
+                    continue;
+                }
+                final int key = k;
+                final int taskNo = next[k]++;
+                d.dispatch(keys[k], () -> {
+                    if (prevIdx.getAndSet(key, taskNo) != taskNo - 1) {
+                        broken.incrementAndGet();
+                    }
+                });
+            }
+        }
+    }
+
+    private void dispatchNextTasks(Dispatcher d, int keys, int taskNo, AtomicIntegerArray prevIdx,
+                                   AtomicInteger broken, Priority... priorities) {
+        for (int k = 0; k < keys; k++) {
+            final int key = k;
+            Runnable task = () -> {
+                if (prevIdx.getAndSet(key, taskNo) != taskNo - 1) {
+                    broken.incrementAndGet();
+                }
+            };
+            if (priorities.length == 0) {
+                d.dispatch(key, task);
+            } else {
+                d.dispatch(key, priorities[(key + taskNo) % priorities.length], task);
+            }
+        }
+    }
+
     private void testAllTasks(final Dispatcher d) throws InterruptedException {
 
         final CountDownLatch threadsLatch = new CountDownLatch(THREADS_NUMBER);
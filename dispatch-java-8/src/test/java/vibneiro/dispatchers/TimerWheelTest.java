@@ -0,0 +1,89 @@
+package vibneiro.dispatchers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TimerWheel wheel = new TimerWheel(0);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    public void testTimeoutExpiresAtItsTick() {
+        wheel.schedule(fire("a"), 10 * MS, 0);
+        wheel.schedule(fire("b"), 10 * MS - 1, 0);
+
+        wheel.advance(9 * MS);
+        assertTrue(fired.isEmpty());
+        assertEquals(2, wheel.size());
+
+        wheel.advance(10 * MS);
+        assertEquals("[a, b]", fired.toString());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTimeoutsCascadeFromCoarserWheels() {
+        long[] delays = {300, 16_383, 16_384, 1_000_000, 70_000_000};
+        for (long delay : delays) {
+            wheel.schedule(fire(Long.toString(delay)), delay * MS, 5 * MS);
+        }
+        wheel.advance(5 * MS);
+
+        for (long delay : delays) {
+            long due = 5 + delay;
+            wheel.advance((due - 1) * MS);
+            assertFalse(delay + " expired early", fired.contains(Long.toString(delay)));
+            wheel.advance(due * MS);
+            assertTrue(delay + " not expired", fired.contains(Long.toString(delay)));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testTimeoutsOfTheSameTickExpireInOrderOfScheduling() {
+        wheel.schedule(fire("far"), 1024 * MS, 0);
+        wheel.advance(0);
+        wheel.advance(1000 * MS);
+        wheel.schedule(fire("near"), 24 * MS, 1000 * MS);
+
+        // "far" is cascaded at the expiring tick into the slot "near" went into directly
+        wheel.advance(1024 * MS);
+        assertEquals("[far, near]", fired.toString());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() {
+        TimerWheel.Timeout cancelled = wheel.schedule(fire("cancelled"), 500 * MS, 0);
+        TimerWheel.Timeout expired = wheel.schedule(fire("expired"), 500 * MS, 0);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(500 * MS);
+        assertEquals("[expired]", fired.toString());
+        assertTrue(cancelled.isCancelled());
+        assertTrue(expired.isExpired());
+        assertFalse(expired.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testIdleWheelSkipsToTheCurrentTick() {
+        wheel.advance(TimeUnit.DAYS.toNanos(30));
+        wheel.schedule(fire("a"), MS, TimeUnit.DAYS.toNanos(30));
+        wheel.advance(TimeUnit.DAYS.toNanos(30) + MS);
+        assertEquals("[a]", fired.toString());
+    }
+
+    private Runnable fire(String name) {
+        return () -> fired.add(name);
+    }
+}
@@ -8,9 +8,24 @@ import org.slf4j.LoggerFactory;
 import vibneiro.idgenerators.IdGenerator;
 import vibneiro.idgenerators.time.SystemDateSource;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class WorkStealingDispatcherTest {
@@ -86,6 +101,797 @@ public class WorkStealingDispatcherTest {
         }
     }
 
+    @Test
+    public void testSampledLruEvictionBoundsCache() throws Exception {
+
+        WorkStealingDispatcher lruDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setQueueSize(100)
+                .setEvictionPolicy(EvictionPolicy.SAMPLED_LRU)
+                .build();
+        lruDispatcher.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-2);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 200000; i++) {
+            final int taskNo = i;
+            last = lruDispatcher.dispatchAsync(i % 2 == 0 ? "id" : idGenerator.nextId(), () -> {
+                if (taskNo % 2 == 0 && prevIdx.getAndSet(taskNo) != taskNo - 2) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+        last.get();
+        awaitCacheSize(lruDispatcher, 100, () -> lruDispatcher.dispatchAsync("id", () -> {}));
+        lruDispatcher.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals(199998, prevIdx.get());
+    }
+
+    @Test
+    public void testIdleDispatchIdsExpire() throws Exception {
+
+        WorkStealingDispatcher ttlDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .unBoundedCache()
+                .setExpireAfterIdle(50, TimeUnit.MILLISECONDS)
+                .build();
+        ttlDispatcher.start();
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[1000];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = ttlDispatcher.dispatchAsync(idGenerator.nextId(), () -> {});
+        }
+        CompletableFuture.allOf(futures).get();
+        assertEquals(1000, ttlDispatcher.getCacheSize());
+
+        awaitCacheSize(ttlDispatcher, 1, () -> ttlDispatcher.dispatchAsync("id", () -> {}));
+        ttlDispatcher.stop();
+    }
+
+    @Test
+    public void testChainsAreRemovedOnCompletion() throws Exception {
+
+        WorkStealingDispatcher eagerDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .unBoundedCache()
+                .setEvictionPolicy(EvictionPolicy.ON_COMPLETION)
+                .build();
+        eagerDispatcher.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-2);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[100000];
+        for (int i = 0; i < futures.length; i++) {
+            final int taskNo = i;
+            futures[i] = eagerDispatcher.dispatchAsync(i % 2 == 0 ? "id" : idGenerator.nextId(), () -> {
+                if (taskNo % 2 == 0 && prevIdx.getAndSet(taskNo) != taskNo - 2) {
+                    broken.incrementAndGet();
+                }
+                if (taskNo % 1000 == 0) {
+                    throw new IllegalStateException("Failing task " + taskNo);
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).exceptionally(t -> null).get();
+
+        assertEquals(0, eagerDispatcher.getCacheSize()); // removed before the futures are completed
+        eagerDispatcher.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals("failed tasks do not skip the following ones", 99998, prevIdx.get());
+    }
+
+    private static void awaitCacheSize(WorkStealingDispatcher dispatcher, int size, Runnable trigger) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getCacheSize() > size && System.currentTimeMillis() < deadline) {
+            trigger.run();
+            Thread.sleep(10);
+        }
+        assertTrue("cache size: " + dispatcher.getCacheSize(), dispatcher.getCacheSize() <= size);
+    }
+
+    @Test
+    public void testFIFOWithMailboxQueuesAndThroughput() throws Exception {
+
+        WorkStealingDispatcher mailboxDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setQueueSize(10)
+                .setThroughput(16)
+                .build();
+        mailboxDispatcher.start();
+
+        final AtomicInteger prevIdx = new AtomicInteger(-2);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 1000000; i++) {
+            final int taskNo = i;
+            last = mailboxDispatcher.dispatchAsync(i % 2 == 0 ? "id" : idGenerator.nextId(), () -> {
+                if (taskNo % 2 == 0 && prevIdx.getAndSet(taskNo) != taskNo - 2) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+        last.get();
+        mailboxDispatcher.stop();
+
+        assertEquals(0, broken.get());
+        assertEquals(999998, prevIdx.get());
+    }
+
+    @Test
+    public void testFIFOWithLongDispatchIds() throws Exception {
+
+        final AtomicInteger prevIdx = new AtomicInteger(-2);
+        final AtomicInteger broken = new AtomicInteger();
+
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 1000000; i++) {
+            final int taskNo = i;
+            last = dispatcher.dispatchAsync(i % 2 == 0 ? 42L : i, () -> { // odd dispatchIds are evicted on the way
+                if (taskNo % 2 == 0 && prevIdx.getAndSet(taskNo) != taskNo - 2) {
+                    broken.incrementAndGet();
+                }
+            });
+        }
+        last.get();
+
+        assertEquals(0, broken.get());
+        assertEquals(999998, prevIdx.get());
+    }
+
+    @Test
+    public void testFireAndForgetDispatchSurvivesFailingTasks() throws Exception {
+
+        WorkStealingDispatcher mailboxDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .mailboxQueues()
+                .build();
+        mailboxDispatcher.start();
+
+        final AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            final int taskNo = i;
+            mailboxDispatcher.dispatch("id", () -> {
+                executed.incrementAndGet();
+                if (taskNo % 10 == 0) {
+                    throw new IllegalStateException("Failing task " + taskNo);
+                }
+            });
+        }
+        mailboxDispatcher.dispatchAsync("id", () -> {}).get();
+        mailboxDispatcher.stop();
+
+        assertEquals(1000, executed.get());
+    }
+
+    @Test
+    public void testRejectOnPendingTasksPerKeyLimit() throws Exception {
+
+        WorkStealingDispatcher boundedDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .setMaxPendingTasksPerKey(2)
+                .setOverflowPolicy(OverflowPolicy.REJECT)
+                .build();
+        boundedDispatcher.start();
+
+        CountDownLatch release = new CountDownLatch(1);
+        boundedDispatcher.dispatchAsync("id", () -> awaitQuietly(release));
+        boundedDispatcher.dispatchAsync("id", () -> {});
+        try {
+            boundedDispatcher.dispatchAsync("id", () -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+        boundedDispatcher.dispatchAsync("otherId", () -> {}).get(); // other dispatchIds are not affected
+
+        release.countDown();
+        boundedDispatcher.stop();
+
+        assertEquals(1, boundedDispatcher.getOverflowStats().getRejectedCount());
+    }
+
+    @Test
+    public void testDispatchIdIsScheduledAgainAfterRejectedDrain() throws Exception {
+
+        final AtomicBoolean rejecting = new AtomicBoolean(true);
+        WorkStealingDispatcher mailboxDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(new ForkJoinPool(1) {
+                    @Override
+                    public void execute(Runnable task) {
+                        if (rejecting.get()) {
+                            throw new RejectedExecutionException("Saturated");
+                        }
+                        super.execute(task);
+                    }
+                })
+                .mailboxQueues()
+                .build();
+        mailboxDispatcher.start();
+
+        try {
+            mailboxDispatcher.dispatchAsync("id", () -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+        try {
+            mailboxDispatcher.dispatchAsync(42L, () -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        rejecting.set(false);
+        mailboxDispatcher.dispatchAsync("id", () -> {}).get(5, TimeUnit.SECONDS);
+        mailboxDispatcher.dispatchAsync(42L, () -> {}).get(5, TimeUnit.SECONDS);
+        mailboxDispatcher.stop();
+    }
+
+    @Test
+    public void testCallerRunsKeepsFifoOfDispatchIds() throws Exception {
+
+        WorkStealingDispatcher boundedDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .setMaxPendingTasksPerKey(1)
+                .setMaxPendingTasks(2)
+                .setOverflowPolicy(OverflowPolicy.CALLER_RUNS)
+                .build();
+        boundedDispatcher.start();
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        boundedDispatcher.dispatchAsync("id", () -> {
+            awaitQuietly(release);
+            order.add(1);
+        });
+        CompletableFuture<Void> unkeyed = boundedDispatcher.dispatchAsync(() -> awaitQuietly(release));
+        assertTrue(boundedDispatcher.dispatchAsync(() -> {}).isDone()); // run by the caller
+        // a task of the dispatchId waits for room rather than overtaking the queued one
+        CompletableFuture<Void> second = CompletableFuture.supplyAsync(() ->
+                boundedDispatcher.dispatchAsync("id", () -> order.add(2)).join());
+        Thread.sleep(50);
+        assertFalse(second.isDone());
+
+        release.countDown();
+        second.get(5, TimeUnit.SECONDS);
+        unkeyed.get(5, TimeUnit.SECONDS);
+        boundedDispatcher.stop();
+
+        assertEquals(Arrays.asList(1, 2), order);
+        assertEquals(1, boundedDispatcher.getOverflowStats().getCallerRunsCount());
+    }
+
+    @Test
+    public void testUniqueDispatchesRespectMaxPendingTasks() throws Exception {
+
+        WorkStealingDispatcher boundedDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .setMaxPendingTasks(2)
+                .setOverflowPolicy(OverflowPolicy.REJECT)
+                .build();
+        boundedDispatcher.start();
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> first = boundedDispatcher.dispatchAsync(() -> awaitQuietly(release));
+        CompletableFuture<Void> second = boundedDispatcher.dispatchAsync(() -> awaitQuietly(release));
+        try {
+            boundedDispatcher.dispatchAsync(() -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        release.countDown();
+        CompletableFuture.allOf(first, second).get();
+        boundedDispatcher.stop();
+
+        assertEquals(1, boundedDispatcher.getOverflowStats().getRejectedCount());
+    }
+
+    @Test
+    public void testUniqueDispatches() throws Exception {
+
+        final AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[10000];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = dispatcher.dispatchAsync(executed::incrementAndGet);
+        }
+        CompletableFuture.allOf(futures).get();
+
+        assertEquals(futures.length, executed.get());
+    }
+
+    @Test
+    public void testUniqueDispatchesUseIdGenerator() throws Exception {
+
+        final AtomicInteger generated = new AtomicInteger();
+        WorkStealingDispatcher idDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .setIdGenerator(new IdGenerator("ID_", new SystemDateSource()) {
+                    @Override
+                    public String nextId() {
+                        generated.incrementAndGet();
+                        return super.nextId();
+                    }
+                })
+                .build();
+        idDispatcher.start();
+
+        CompletableFuture.allOf(idDispatcher.dispatchAsync(() -> {}), idDispatcher.dispatchAsync(() -> {})).get();
+        idDispatcher.stop();
+
+        assertEquals(2, generated.get());
+    }
+
+    @Test
+    public void testStopAsyncReportsAbandonedTasksAndChains() throws Exception {
+
+        WorkStealingDispatcher mailboxDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .mailboxQueues()
+                .build();
+        mailboxDispatcher.start();
+        WorkStealingDispatcher chainDispatcher = WorkStealingDispatcher
+                .newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .build();
+        chainDispatcher.start();
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Void>> queued = new ArrayList<>();
+        for (WorkStealingDispatcher d : new WorkStealingDispatcher[] {mailboxDispatcher, chainDispatcher}) {
+            d.dispatchAsync("blocked", () -> awaitQuietly(release));
+            for (int i = 0; i < 5; i++) {
+                CompletableFuture<Void> future = d.dispatchAsync("blocked", () -> {});
+                if (d == mailboxDispatcher) {
+                    queued.add(future);
+                }
+                d.dispatchAsync("free" + i, () -> {});
+            }
+        }
+        Thread.sleep(100); // free dispatchIds complete
+
+        ShutdownReport mailboxReport = mailboxDispatcher.stopAsync(Duration.ofMillis(100)).get();
+        ShutdownReport chainReport = chainDispatcher.stopAsync(Duration.ofMillis(100)).get();
+        release.countDown();
+
+        assertFalse(mailboxReport.isDrained());
+        assertEquals("the 5 queued behind the running task", 5, mailboxReport.getAbandonedTasksCount());
+        assertEquals(queued, mailboxReport.getAbandonedTasks());
+        for (Runnable task : mailboxReport.getAbandonedTasks()) {
+            task.run();
+        }
+        for (CompletableFuture<Void> future : queued) {
+            assertTrue(future.isDone());
+        }
+        assertFalse(chainReport.isDrained());
+        assertEquals(1, chainReport.getAbandonedChains());
+        try {
+            chainDispatcher.dispatchAsync("id", () -> {});
+            fail("RejectedExecutionException is expected");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testBlockingTasksGetCompensationThreads() throws Exception {
+        WorkStealingDispatcher blocking = WorkStealingDispatcher.newBuilder().setThreadsCount(2).build();
+        blocking.start();
+
+        final int tasks = 16;
+        final CountDownLatch started = new CountDownLatch(tasks);
+        final CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks];
+        for (int i = 0; i < tasks; i++) {
+            futures[i] = blocking.dispatchBlockingAsync("id" + i, () -> {
+                started.countDown();
+                awaitQuietly(release); // all of them block at once on a pool of 2 threads
+            });
+        }
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        BlockingStats stats = blocking.getBlockingStats();
+        assertEquals(tasks, stats.getBlockedTasks());
+        assertTrue(stats.toString(), stats.getPeakCompensationThreads() >= tasks - 2);
+
+        release.countDown();
+        CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+        blocking.stop();
+
+        assertEquals(tasks, stats.getBlockingTasks());
+        assertEquals(0, stats.getBlockedTasks());
+        assertEquals(tasks, stats.getPeakBlockedTasks());
+    }
+
+    @Test
+    public void testVirtualThreadsRunBlockingTasksInOrder() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                WorkStealingDispatcher.newBuilder().virtualThreads();
+                fail("UnsupportedOperationException is expected before JDK 21");
+            } catch (UnsupportedOperationException expected) {
+            }
+            return;
+        }
+
+        try {
+            WorkStealingDispatcher.newBuilder()
+                    .setExecutorService(Executors.newSingleThreadExecutor())
+                    .virtualThreads()
+                    .build()
+                    .start();
+            fail("IllegalStateException is expected");
+        } catch (IllegalStateException expected) {
+        }
+
+        WorkStealingDispatcher virtual = WorkStealingDispatcher.newBuilder().virtualThreads().build();
+        virtual.start();
+
+        final int keys = 10000;
+        final int tasksPerKey = 3;
+        final AtomicInteger[] prevIdx = new AtomicInteger[keys];
+        final AtomicInteger broken = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+        for (int k = 0; k < keys; k++) {
+            prevIdx[k] = new AtomicInteger(-1);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                final int taskNo = i;
+                virtual.dispatch((long) k, () -> {
+                    try {
+                        Thread.sleep(10); // blocking I/O
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (prevIdx[key].getAndSet(taskNo) != taskNo - 1) {
+                        broken.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            }
+        }
+
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        log.info("{} blocking tasks of {} dispatchIds took {} ms on virtual threads", keys * tasksPerKey, keys,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        assertTrue(virtual.stopAsync(Duration.ofSeconds(10)).get().isDrained());
+        assertEquals(0, broken.get());
+    }
+
+    @Test
+    public void testPriorityLanesRunHighTasksFirst() throws Exception {
+        assertHighTasksOvertakeBulk(WorkStealingDispatcher.newBuilder()
+                .setExecutorService(Executors.newSingleThreadExecutor())
+                .priorityLanes()
+                .build());
+        assertHighTasksOvertakeBulk(WorkStealingDispatcher.newBuilder()
+                .setExecutorService(Executors.newSingleThreadExecutor())
+                .mailboxQueues()
+                .priorityLanes()
+                .build());
+    }
+
+    private void assertHighTasksOvertakeBulk(WorkStealingDispatcher prioritized) throws Exception {
+        prioritized.start();
+
+        // the only thread is busy, thus all the tasks below wait in the lanes
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        prioritized.dispatchAsync("blocker", () -> {
+            blocked.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        final int tasks = 20;
+        final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(prioritized.dispatchAsync("mixed", Priority.BULK, () -> completed.add("mixed-bulk")));
+        for (int i = 0; i < tasks; i++) {
+            futures.add(prioritized.dispatchAsync("bulk" + i, Priority.BULK, () -> completed.add("bulk")));
+        }
+        for (int i = 0; i < tasks; i++) {
+            futures.add(prioritized.dispatchAsync("high" + i, Priority.HIGH, () -> completed.add("high")));
+        }
+        // FIFO per dispatchId: waits for the BULK task of its dispatchId
+        futures.add(prioritized.dispatchAsync("mixed", Priority.HIGH, () -> completed.add("mixed-high")));
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        prioritized.stop();
+
+        int lastHigh = completed.lastIndexOf("high");
+        int bulkBeforeLastHigh = 0;
+        for (String task : completed.subList(0, lastHigh)) {
+            if (task.startsWith("bulk")) {
+                bulkBeforeLastHigh++;
+            }
+        }
+        // 8:4:1, the NORMAL lane is empty: about one BULK task per 13 run
+        assertTrue(completed.toString(), bulkBeforeLastHigh <= 3);
+        assertTrue(completed.toString(), completed.indexOf("mixed-bulk") < completed.indexOf("mixed-high"));
+    }
+
+    @Test
+    public void testSubmittedTasksReturnResultsInOrder() throws Exception {
+        assertSubmittedResultsInOrder(WorkStealingDispatcher.newBuilder().build());
+        assertSubmittedResultsInOrder(WorkStealingDispatcher.newBuilder()
+                .setEvictionPolicy(EvictionPolicy.SAMPLED_LRU)
+                .build());
+        assertSubmittedResultsInOrder(WorkStealingDispatcher.newBuilder()
+                .setEvictionPolicy(EvictionPolicy.ON_COMPLETION)
+                .build());
+        assertSubmittedResultsInOrder(WorkStealingDispatcher.newBuilder().mailboxQueues().build());
+    }
+
+    private static void assertSubmittedResultsInOrder(WorkStealingDispatcher d) throws Exception {
+        d.start();
+
+        final AtomicInteger sequence = new AtomicInteger();
+        final AtomicInteger longSequence = new AtomicInteger();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        List<CompletableFuture<Integer>> longResults = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            d.dispatchAsync("id", () -> sequence.incrementAndGet());
+            results.add(d.submitAsync("id", sequence::incrementAndGet));
+            longResults.add(d.submitAsync(42L, longSequence::incrementAndGet));
+        }
+        CompletableFuture<String> failed = d.submitAsync("id", () -> {
+            throw new IllegalStateException("failed");
+        });
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2 * i + 2, (int) results.get(i).get(10, TimeUnit.SECONDS));
+            assertEquals(i + 1, (int) longResults.get(i).get(10, TimeUnit.SECONDS));
+        }
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        d.stop();
+    }
+
+    @Test
+    public void testBatchedTasksRunInOrderPerDispatchId() throws Exception {
+        for (WorkStealingDispatcher d : new WorkStealingDispatcher[] {
+                WorkStealingDispatcher.newBuilder().build(),
+                WorkStealingDispatcher.newBuilder().setEvictionPolicy(EvictionPolicy.SAMPLED_LRU).build(),
+                WorkStealingDispatcher.newBuilder().setEvictionPolicy(EvictionPolicy.ON_COMPLETION).build(),
+                WorkStealingDispatcher.newBuilder().mailboxQueues().build()}) {
+            d.start();
+            assertBatchedTasksRunInOrder(d);
+            d.stop();
+        }
+    }
+
+    /**
+     * Batches interleave tasks of String and long dispatchIds, in between tasks dispatched one by one.
+     */
+    static void assertBatchedTasksRunInOrder(Dispatcher d) throws Exception {
+        final int keys = 10;
+        final int tasksPerKey = 50;
+        List<List<Integer>> runs = new ArrayList<>();
+        List<CompletableFuture<Void>> lastTasks = new ArrayList<>();
+        for (int k = 0; k < 2 * keys; k++) {
+            runs.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        for (int k = 0; k < keys; k++) {
+            d.dispatchAsync("id" + k, record(runs.get(k), 0));
+            d.dispatchAsync((long) k, record(runs.get(keys + k), 0));
+        }
+        List<KeyedTask> batch = new ArrayList<>();
+        for (int i = 1; i <= tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                batch.add(new KeyedTask("id" + k, record(runs.get(k), i)));
+                batch.add(new KeyedTask((long) k, record(runs.get(keys + k), i)));
+            }
+        }
+        CompletableFuture<Void> batchFuture = d.dispatchAllAsync(batch);
+        for (int k = 0; k < keys; k++) {
+            lastTasks.add(d.dispatchAsync("id" + k, record(runs.get(k), tasksPerKey + 1)));
+            lastTasks.add(d.dispatchAsync((long) k, record(runs.get(keys + k), tasksPerKey + 1)));
+        }
+
+        batchFuture.get(10, TimeUnit.SECONDS);
+        CompletableFuture.allOf(lastTasks.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        for (List<Integer> run : runs) {
+            assertEquals(tasksPerKey + 2, run.size());
+            for (int i = 0; i < run.size(); i++) {
+                assertEquals(i, (int) run.get(i));
+            }
+        }
+
+        // a failed task fails the batch, not the tasks after it
+        AtomicInteger after = new AtomicInteger();
+        CompletableFuture<Void> failed = d.dispatchAllAsync(Arrays.asList(
+                new KeyedTask("id0", () -> {
+                    throw new IllegalStateException("failed");
+                }),
+                new KeyedTask("id0", after::incrementAndGet),
+                new KeyedTask(0L, after::incrementAndGet)));
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(2, after.get());
+
+        assertTrue(d.dispatchAllAsync(Collections.emptyList()).isDone());
+    }
+
+    private static Runnable record(List<Integer> run, int i) {
+        return () -> run.add(i);
+    }
+
+    @Test
+    public void testListenersAreNotifiedByTheWorkerRightAfterTheTask() throws Exception {
+        for (WorkStealingDispatcher d : new WorkStealingDispatcher[] {
+                WorkStealingDispatcher.newBuilder().build(),
+                WorkStealingDispatcher.newBuilder().setEvictionPolicy(EvictionPolicy.ON_COMPLETION).build(),
+                WorkStealingDispatcher.newBuilder().mailboxQueues().build()}) {
+            d.start();
+            assertListenersNotified(d);
+            d.stop();
+        }
+    }
+
+    static void assertListenersNotified(Dispatcher d) throws Exception {
+        final Thread caller = Thread.currentThread();
+        final int tasks = 100;
+        final CountDownLatch notified = new CountDownLatch(2 * tasks + 1);
+        final AtomicInteger ran = new AtomicInteger();
+        final AtomicInteger longRan = new AtomicInteger();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 1; i <= tasks; i++) {
+            final int expected = i;
+            d.dispatch("id", ran::incrementAndGet, failure -> {
+                // before the next task of the dispatchId
+                if (failure != null || Thread.currentThread() == caller || ran.get() != expected) {
+                    errors.add("task " + expected + " ran " + ran.get() + " failure " + failure);
+                }
+                notified.countDown();
+            });
+            d.dispatch(42L, longRan::incrementAndGet, failure -> {
+                if (failure != null || longRan.get() != expected) {
+                    errors.add("long task " + expected + " ran " + longRan.get() + " failure " + failure);
+                }
+                notified.countDown();
+            });
+        }
+        d.dispatch("id", () -> {
+            throw new IllegalStateException("failed");
+        }, failure -> {
+            if (!(failure instanceof IllegalStateException)) {
+                errors.add("failure " + failure);
+            }
+            notified.countDown();
+        });
+
+        assertTrue(notified.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), errors);
+    }
+
+    @Test
+    public void testScheduledTasksTakeTheirTurnsAmongTasksOfTheirDispatchId() throws Exception {
+        final long start = System.nanoTime();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        final long[] firstRunNanos = new long[1];
+
+        dispatcher.dispatchAsync("id", () -> {
+            awaitQuietly(release);
+            completed.add("blocker");
+        });
+        CompletableFuture<Void> first = dispatcher.scheduleAsync("id", () -> {
+            firstRunNanos[0] = System.nanoTime();
+            completed.add("first");
+        }, Duration.ofMillis(20));
+        CompletableFuture<Void> second = dispatcher.scheduleAsync("id", () -> completed.add("second"),
+                Duration.ofMillis(20));
+        Thread.sleep(100); // both are dispatched behind the blocker
+        CompletableFuture<Void> third = dispatcher.dispatchAsync("id", () -> completed.add("third"));
+
+        release.countDown();
+        CompletableFuture.allOf(first, second, third).get(10, TimeUnit.SECONDS);
+        assertEquals("[blocker, first, second, third]", completed.toString());
+        assertTrue(firstRunNanos[0] - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testFixedRateTaskRunsUntilCancelled() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch ranThrice = new CountDownLatch(3);
+        CompletableFuture<Void> periodic = dispatcher.scheduleAtFixedRateAsync(42L, () -> {
+            runs.incrementAndGet();
+            ranThrice.countDown();
+        }, Duration.ZERO, Duration.ofMillis(5));
+
+        assertTrue(ranThrice.await(10, TimeUnit.SECONDS));
+        assertTrue(periodic.cancel(false));
+        int runsWhenCancelled = runs.get();
+        Thread.sleep(50);
+        assertTrue(runs.get() <= runsWhenCancelled + 1); // a run in progress is not interrupted
+        assertTrue(periodic.isCancelled());
+    }
+
+    @Test
+    public void testDueScheduledTaskDoesNotWaitForRoom() throws Exception {
+        WorkStealingDispatcher bounded = WorkStealingDispatcher.newBuilder()
+                .setExecutorService(Executors.newCachedThreadPool())
+                .mailboxQueues()
+                .setMaxPendingTasksPerKey(1)
+                .setOverflowPolicy(OverflowPolicy.BLOCK)
+                .build();
+        bounded.start();
+        assertDueScheduledTaskDoesNotWaitForRoom(bounded);
+        bounded.stop();
+    }
+
+    /**
+     * The shared timer thread must keep firing timeouts while a dispatchId of a bounded dispatcher is full.
+     */
+    static void assertDueScheduledTaskDoesNotWaitForRoom(Dispatcher bounded) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        bounded.dispatch("id", () -> awaitQuietly(release));
+        CompletableFuture<Void> due = bounded.scheduleAsync("id", () -> {}, Duration.ZERO);
+
+        CompletableFuture<Void> later = new CompletableFuture<>();
+        TimerWheel.shared().schedule(() -> later.complete(null), TimeUnit.MILLISECONDS.toNanos(20));
+        later.get(5, TimeUnit.SECONDS);
+        assertFalse(due.isDone());
+
+        release.countDown();
+        due.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testScheduledTaskDueAfterStopIsRejected() throws Exception {
+        WorkStealingDispatcher stopping = WorkStealingDispatcher.newBuilder().build();
+        stopping.start();
+        CompletableFuture<Void> late = stopping.scheduleAsync("id", () -> fail("run after stop"),
+                Duration.ofMillis(20));
+        stopping.stop();
+
+        try {
+            late.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            stopping.scheduleAsync("id", () -> { }, Duration.ZERO);
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private interface Callback {
         void callback(int curIndex);
     }
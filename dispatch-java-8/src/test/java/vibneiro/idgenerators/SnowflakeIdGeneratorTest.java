@@ -0,0 +1,76 @@
+package vibneiro.idgenerators;
+
+import org.junit.Test;
+import vibneiro.idgenerators.time.CachedDateSource;
+import vibneiro.idgenerators.time.SystemDateSource;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 200000;
+
+    @Test
+    public void testUniqueAndMonotonicPerThread() throws InterruptedException {
+        final SnowflakeIdGenerator generator;
+        try (CachedDateSource dateSource = new CachedDateSource()) {
+            generator = new SnowflakeIdGenerator(dateSource);
+
+            final long[] ids = new long[THREADS * IDS_PER_THREAD];
+            final AtomicInteger notMonotonic = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(THREADS);
+
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t * IDS_PER_THREAD;
+                new Thread(() -> {
+                    long prev = Long.MIN_VALUE;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        long id = generator.nextId();
+                        if (id <= prev) {
+                            notMonotonic.incrementAndGet();
+                        }
+                        ids[offset + i] = prev = id;
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+
+            assertEquals(0, notMonotonic.get());
+            Arrays.sort(ids);
+            for (int i = 1; i < ids.length; i++) {
+                assertNotEquals(ids[i - 1], ids[i]);
+            }
+            assertTrue(ids[0] > 0);
+        }
+    }
+
+    @Test
+    public void testTimestampAndStringForm() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator("ID_", new SystemDateSource());
+
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+        long after = System.currentTimeMillis();
+
+        assertTrue(SnowflakeIdGenerator.timestampOf(id) >= before);
+        assertTrue(SnowflakeIdGenerator.timestampOf(id) <= after);
+        assertEquals("ID_" + id, generator.toString(id));
+        assertTrue(generator.nextStringId().startsWith("ID_"));
+    }
+
+    @Test
+    public void testClockGoingBackwards() {
+        final long[] time = {SnowflakeIdGenerator.EPOCH + 1000000};
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(() -> time[0]);
+
+        long first = generator.nextId();
+        time[0] -= 1000;
+        assertTrue(generator.nextId() > first);
+    }
+}